@@ -18,4 +18,46 @@ public class BitsAndBytes {
         return val;
     }
 
+
+    /** Reverse of bytes2long, writes len lowest bytes of val into bytes */
+    public static void long2bytes(long val, int len, byte[] bytes, int offset) {
+        if (len > 8)
+            throw new IllegalArgumentException("len must be <= 8 and now is: " + len);
+
+        for (int idx = offset + len - 1; idx >= offset; idx--) {
+            bytes[idx] = (byte) val;
+            val >>>= 8;
+        }
+    }
+
+
+    /**
+     * 32 bit hash of byte array region. Data is consumed in the same
+     * 8 byte chunks as InternTrie keys and finalized with murmur3 mixer.
+     */
+    public static int hash(byte[] bytes, int offset, int len) {
+        long h = 0x9E3779B97F4A7C15l ^ len;
+        final int endIdx = offset + len;
+        for (int idx = offset; idx < endIdx; idx += 8) {
+            int chunkLen = Math.min(endIdx - idx, 8);
+            long chunk = bytes2long(bytes, idx, chunkLen);
+            h = (h ^ chunk) * 0xBF58476D1CE4E5B9l;
+            h ^= h >>> 31;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDl;
+        h ^= h >>> 33;
+        return (int) (h ^ (h >>> 32));
+    }
+
+
+    /** Compares two byte array regions of the same length */
+    public static boolean equals(byte[] a, int aOffset, byte[] b, int bOffset, int len) {
+        for (int idx = 0; idx < len; idx++) {
+            if (a[aOffset + idx] != b[bOffset + idx]) return false;
+        }
+        return true;
+    }
+
 }
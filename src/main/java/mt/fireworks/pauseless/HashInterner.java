@@ -0,0 +1,221 @@
+package mt.fireworks.pauseless;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+import lombok.Cleanup;
+
+/**
+ * Interner backed by open addressing hash table, with keys stored
+ * in contiguous byte slab. <br>
+ *
+ * {@link InternTrie} does one map lookup per each 8 bytes of key. For keys of
+ * 12-64 bytes it is cheaper to hash the key once and compare it against key
+ * bytes stored in slab. Table is kept at most half full, thus most lookups
+ * end at first probed slot. Each slot stores hash and length of its key,
+ * thus slots of other keys are rejected without touching the slab. <br>
+ *
+ * Lookups are lock free. Inserts are serialized by a lock, which is held
+ * only while key is appended to slab and slot is published. As in InternTrie,
+ * unmarshaller is invoked outside of lock and if two threads miss the same key
+ * at once, the loser discards its value. <br>
+ *
+ * Slab is append only, thus each distinct key costs its length in bytes,
+ * plus 16 bytes of slot and value reference per two table slots.
+ */
+public class HashInterner<T> implements Interner<T> {
+
+    volatile Table table;
+    final KeySlab slab = new KeySlab();
+
+    /** Writer state, guarded by lock */
+    int size;
+    final ReentrantLock lock = new ReentrantLock();
+
+
+    public HashInterner() {
+        this(1024);
+    }
+
+
+    /** @param expectedSize number of distinct keys expected to be interned */
+    public HashInterner(int expectedSize) {
+        if (expectedSize < 0)
+            throw new IllegalArgumentException("expectedSize must be >= 0 and now is: " + expectedSize);
+
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+        this.table = new Table(capacity);
+    }
+
+
+    /**
+     * Interns an object based on its byte array representation.
+     *
+     * @param objData      The byte array representation of the object.
+     * @param off          The starting offset in the byte array.
+     * @param len          The length of the byte array to use.
+     * @param unmarshaller The unmarshaller to convert byte array to object.
+     * @return The interned object.
+     */
+    @Override
+    public T intern(byte[] objData, int off, int len, UnmarshallerWithOffset<T> unmarshaller) {
+        if (len == 0) {
+            return null;
+        }
+
+        int hash = BitsAndBytes.hash(objData, off, len);
+        T value = find(table, hash, objData, off, len);
+        if (value != null) {
+            return value;
+        }
+
+        value = unmarshaller.unmarshall(objData, off, len);
+        if (value == null) {
+            return null;
+        }
+
+        return insert(hash, objData, off, len, value);
+    }
+
+
+    /**
+     * Returns object previously interned under given byte array representation.
+     *
+     * @param objData      The byte array representation of the object.
+     * @param off          The starting offset in the byte array.
+     * @param len          The length of the byte array to use.
+     * @return The interned object, or null if data was not interned yet.
+     */
+    @Override
+    public T get(byte[] objData, int off, int len) {
+        if (len == 0) {
+            return null;
+        }
+
+        int hash = BitsAndBytes.hash(objData, off, len);
+        return find(table, hash, objData, off, len);
+    }
+
+
+    /** Number of interned objects */
+    public int size() {
+        @Cleanup("unlock") ReentrantLock l = lock;
+        l.lock();
+        return size;
+    }
+
+
+    /**
+     * Performs action for each interned object and its key. Key array
+     * is created for each object, and may be retained by action.
+     * Objects interned meanwhile may or may not be visited.
+     */
+    public void forEach(BiConsumer<byte[], ? super T> action) {
+        Table t = table;
+        for (int slot = 0; slot < t.values.length(); slot++) {
+            long h = t.entries.get(slot << 1);
+            if (h == 0) continue;
+
+            long keyRef = t.entries.get((slot << 1) + 1);
+            action.accept(slab.copyOf(keyRef, (int) h), (T) t.values.get(slot));
+        }
+    }
+
+
+    T find(Table t, int hash, byte[] objData, int off, int len) {
+        long header = header(hash, len);
+        int mask = t.mask;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            long h = t.entries.get(slot << 1);
+            if (h == 0) {
+                return null;
+            }
+
+            if (h != header) {
+                continue;
+            }
+
+            long keyRef = t.entries.get((slot << 1) + 1);
+            if (slab.equals(keyRef, objData, off, len)) {
+                return (T) t.values.get(slot);
+            }
+        }
+    }
+
+
+    T insert(int hash, byte[] objData, int off, int len, T value) {
+        @Cleanup("unlock") ReentrantLock l = lock;
+        l.lock();
+
+        Table t = table;
+        T existing = find(t, hash, objData, off, len);
+        if (existing != null) {
+            return existing;
+        }
+
+        if ((size + 1) * 2 > t.values.length()) {
+            t = resize(t);
+        }
+
+        long keyRef = slab.append(objData, off, len);
+        t.put(header(hash, len), keyRef, value);
+        size++;
+        return value;
+    }
+
+
+    /**
+     * Rehashes all slots into table of double capacity. Old table is never
+     * modified after this, thus readers still using it see consistent state.
+     */
+    Table resize(Table old) {
+        Table t = new Table(old.values.length() * 2);
+        for (int slot = 0; slot < old.values.length(); slot++) {
+            long h = old.entries.get(slot << 1);
+            if (h == 0) continue;
+            t.put(h, old.entries.get((slot << 1) + 1), old.values.get(slot));
+        }
+        table = t;
+        return t;
+    }
+
+
+    /** Slot header, never 0 as key length is at least 1 */
+    static long header(int hash, int len) {
+        return ((long) hash << 32) | len;
+    }
+
+
+
+    /**
+     * Open addressing table. Each slot has two longs in entries:
+     * header (key hash and length) and key reference (slab chunk index
+     * and offset). Header is written last, publishing the slot, and
+     * thus also key bytes appended to slab before it.
+     */
+    static class Table {
+        final AtomicLongArray entries;
+        final AtomicReferenceArray<Object> values;
+        final int mask;
+
+        Table(int capacity) {
+            entries = new AtomicLongArray(capacity * 2);
+            values = new AtomicReferenceArray<>(capacity);
+            mask = capacity - 1;
+        }
+
+        void put(long header, long keyRef, Object value) {
+            int slot = (int) (header >>> 32) & mask;
+            while (entries.get(slot << 1) != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            values.lazySet(slot, value);
+            entries.lazySet((slot << 1) + 1, keyRef);
+            entries.set(slot << 1, header);
+        }
+    }
+
+}
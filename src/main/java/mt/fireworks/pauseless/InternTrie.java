@@ -1,10 +1,17 @@
 package mt.fireworks.pauseless;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
-
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.eclipse.collections.api.list.primitive.MutableLongList;
 import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
 import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
 
@@ -60,171 +67,467 @@ import lombok.*;
  * number of recurring objects are deserialized and instantiated.
  * By instantiating InternTrie at start of deserialization, the one can
  * deseriliaze repeating objects only once, and than remove InternTrie from
- * scope as job is done leaving to GC to collect all interned values. <br>
+ * scope as job is done leaving to GC to collect all interned values.
+ * When such jobs run repeatedly or concurrently, {@link ScopedInternTrie}
+ * gives each job its own thread confined trie while recurring values are
+ * promoted to one shared InternTrie. <br>
+ *
+ * InternTrie is one of {@link Interner} implementations. For longer keys
+ * consider {@link HashInterner}. <br>
+ *
+ * Trie keys are 8 byte chunks, while last chunk of 1-7 bytes is stored
+ * as long together with its length. Thus keys which differ only in leading
+ * zero bytes of last chunk, or full chunk starting with zero byte and
+ * 7 bytes long last chunk, map to the same long. Such colliding keys are
+ * detected by length and kind of stored entry, and are interned in overflow
+ * {@link HashInterner} instead, thus binary keys are interned correctly.
+ * Keys need not be stored nor compared, as last chunk and its length
+ * determine key bytes. This relies on children maps never being read while
+ * other thread modifies them: lookups read maps optimistically and discard
+ * reads which raced with modification, see {@link TrieNode}. <br>
  *
  * Yet another benefit of ItnerTrie is an ability to intern any object type.
  * As byte data is used as key of object, actual type/content of object in
  * Java form is irrelevant. Thus it is possible to use InternTrie also
  * as intern for other types like Long and Integer, or any other pojo etc..
  */
-public class InternTrie<T> {
-
+public class InternTrie<T> implements Interner<T> {
 
     /**
-     * Interface for unmarshalling byte arrays into objects of type T.
-     *
-     * @param <T> The type of object to be unmarshalled.
+     * Estimated bytes retained by trie structure, assuming compressed oops.
+     * Interned objects themselves are not accounted, as their size is unknown.
+     * Children map starts with table of MAP_SLOTS slots, and doubles its table
+     * whenever it gets more than half full.
      */
-    public interface Unmarshaller<T> {
-        T unmarshall(byte[] objData);
-    }
+    static final int NODE_BYTES = 96;   // node, its lock and holder in parent map
+    static final int MAP_SLOTS = 16;    // initial table size of LongObjectHashMap
+    static final int SLOT_BYTES = 12;   // long key and value reference of table slot
+    static final int MAP_BYTES = 40 + 16 + 16 + MAP_SLOTS * SLOT_BYTES; // map, its key and value arrays
+    static final int VALUE_BYTES = 24;  // value holder
 
-    /**
-     * Interface for unmarshalling byte arrays into objects of type T.
-     * It adds offset logic to basic <code>Unmarshaller</code>.
-     *
-     * @param <T> The type of object to be unmarshalled.
-     */
-    public interface UnmarshallerWithOffset<T> {
-        T unmarshall(byte[] objData, int off, int len);
-    }
+    final TrieNode<T> root = new TrieNode<>(0l);
 
+    /** Intern of keys colliding with other keys in trie, created on first collision */
+    volatile HashInterner<T> overflow;
 
+    static final AtomicReferenceFieldUpdater<InternTrie, HashInterner> OVERFLOW =
+            AtomicReferenceFieldUpdater.newUpdater(InternTrie.class, HashInterner.class, "overflow");
 
+    /** Counters maintained on insert, thus cheap to read at any time */
+    final LongAdder valueCount = new LongAdder();
+    final LongAdder nodeCount = new LongAdder();
+    final LongAdder mapCount = new LongAdder();
+    final LongAdder retainedBytes = new LongAdder();
 
-    final TrieNode<T> root = new TrieNode<>(0l);
+    public InternTrie() {
+        nodeCount.increment();
+        retainedBytes.add(NODE_BYTES);
+    }
 
     /**
      * Interns an object based on its byte array representation.
      *
      * @param objData      The byte array representation of the object.
+     * @param off          The starting offset in the byte array.
+     * @param len          The length of the byte array to use.
      * @param unmarshaller The unmarshaller to convert byte array to object.
      * @return The interned object.
      */
-    public T intern(byte[] objData, Unmarshaller<T> unmarshaller) {
-        return intern(objData, 0, objData.length, (data, off, len) -> unmarshaller.unmarshall(data));
-    }
+    @Override
+    public T intern(byte[] objData, int off, int len, UnmarshallerWithOffset<T> unmarshaller) {
+        TrieNode<T> current = root;
+        int endIdx = off + len;
+        for (int idx = off; idx < endIdx; idx += 8) {
+            int keyLen = Math.min(endIdx - idx, 8);
+            long nodeKey = BitsAndBytes.bytes2long(objData, idx, keyLen);
+            if (keyLen < 8) {
+                return current.childValue(this, nodeKey, keyLen, unmarshaller, objData, off, len);
+            }
 
+            current = current.childNode(this, nodeKey);
+            if (current == null) {
+                return collision(objData, off, len, unmarshaller);
+            }
+        }
 
-    /**
-     * Interns an object based on its byte array representation.
-     *
-     * @param objData      The byte array representation of the object.
-     * @param unmarshaller The unmarshaller to convert byte array to object.
-     * @return The interned object.
-     */
-    public T intern(byte[] objData, UnmarshallerWithOffset<T> unmarshaller) {
-        return intern(objData, 0, objData.length, unmarshaller);
+        T value = current.getValue(this, unmarshaller, objData, off, len);
+        return value;
     }
 
 
-
     /**
-     * Interns an object based on its byte array representation.
+     * Returns object previously interned under given byte array representation.
+     * Unlike intern, this method never creates trie nodes nor unmarshalls data.
      *
      * @param objData      The byte array representation of the object.
      * @param off          The starting offset in the byte array.
      * @param len          The length of the byte array to use.
-     * @param unmarshaller The unmarshaller to convert byte array to object.
-     * @return The interned object.
+     * @return The interned object, or null if data was not interned yet.
      */
-    public T intern(byte[] objData, int off, int len, UnmarshallerWithOffset<T> unmarshaller) {
+    @Override
+    public T get(byte[] objData, int off, int len) {
+        T value = peek(objData, off, len);
+        if (value != null) return value;
+
+        HashInterner<T> overflow = this.overflow;
+        return overflow != null ? overflow.get(objData, off, len) : null;
+    }
+
+
+    T peek(byte[] objData, int off, int len) {
         TrieNode<T> current = root;
         int endIdx = off + len;
         for (int idx = off; idx < endIdx; idx += 8) {
             int keyLen = Math.min(endIdx - idx, 8);
             long nodeKey = BitsAndBytes.bytes2long(objData, idx, keyLen);
             if (keyLen < 8) {
-                return current.childValue(nodeKey, unmarshaller, objData, off, len);
+                return current.peekValue(nodeKey, keyLen);
             }
 
-            current = current.childNode(nodeKey);
+            current = current.peekNode(nodeKey);
+            if (current == null) return null;
         }
 
-        T value = current.getValue(unmarshaller, objData, off, len);
-        return value;
+        return TrieNodeAccess.value(current);
+    }
+
+
+    /** Interns key which collides with other key in trie */
+    T collision(byte[] objData, int off, int len, UnmarshallerWithOffset<T> unmarshaller) {
+        HashInterner<T> overflow = this.overflow;
+        if (overflow == null) {
+            OVERFLOW.compareAndSet(this, null, new HashInterner<>(16));
+            overflow = this.overflow;
+        }
+        return overflow.intern(objData, off, len, unmarshaller);
+    }
+
+
+    /** Number of interned objects, including objects of colliding keys */
+    public long size() {
+        return valueCount.sum() + collisionCount();
     }
 
+    /** Number of trie nodes, including root */
+    public long nodeCount() {
+        return nodeCount.sum();
+    }
+
+    /** Number of children maps */
+    public long mapCount() {
+        return mapCount.sum();
+    }
+
+    /**
+     * Number of objects interned in overflow intern, as their keys
+     * collide with keys of other objects in trie. They are included in
+     * size, iteration and statistics.
+     */
+    public long collisionCount() {
+        HashInterner<T> overflow = this.overflow;
+        return overflow != null ? overflow.size() : 0;
+    }
+
+    /**
+     * Estimated number of bytes retained by trie structure, excluding
+     * interned objects. Estimate assumes compressed oops.
+     */
+    public long estimatedRetainedBytes() {
+        return retainedBytes.sum();
+    }
+
+
+    /**
+     * Walks whole trie and collects detailed statistics. Unlike counters,
+     * walk cost is proportional to trie size, however walk is iterative
+     * and runs concurrently with interning.
+     *
+     * @see InternTrieStats
+     */
+    public InternTrieStats stats() {
+        return InternTrieStats.of(this);
+    }
 
+
+    /**
+     * Performs action for each interned object and its key. Key array
+     * is created for each object, and may be retained by action.
+     * Interning continues while trie is iterated, objects interned
+     * meanwhile may or may not be visited.
+     */
+    public void forEach(BiConsumer<byte[], ? super T> action) {
+        spliterator().forEachRemaining(e -> action.accept(e.getKey(), e.getValue()));
+    }
+
+
+    /** Performs action for each interned object which key starts with prefix */
+    public void forEach(byte[] prefix, BiConsumer<byte[], ? super T> action) {
+        spliterator(prefix).forEachRemaining(e -> action.accept(e.getKey(), e.getValue()));
+    }
+
+
+    /**
+     * Spliterator of key and object entries. Spliterator splits work at
+     * children map boundaries, thus large tries can be processed with
+     * parallel streams, without stopping threads which intern meanwhile.
+     */
+    public Spliterator<Map.Entry<byte[], T>> spliterator() {
+        InternTrieSpliterator<T> spliterator = new InternTrieSpliterator<>(root, new byte[0], 0, size());
+        spliterator.overflow = overflow;
+        spliterator.overflowPrefix = spliterator.path;
+        return spliterator;
+    }
+
+
+    /** Spliterator of key and object entries which key starts with prefix */
+    public Spliterator<Map.Entry<byte[], T>> spliterator(byte[] prefix) {
+        return InternTrieSpliterator.of(this, prefix);
+    }
+
+
+    /** Sequential stream of key and object entries */
+    public Stream<Map.Entry<byte[], T>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+
+    /** Parallel stream of key and object entries */
+    public Stream<Map.Entry<byte[], T>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+
+    /** Holder of interned object in children map */
+    static class ValueRef extends AtomicReference<Object> {
+        /** Length of last key chunk, 1 to 7 bytes */
+        final int len;
+
+        ValueRef(int len) {
+            this.len = len;
+        }
+
+        /** True if ref holds value of key ending with chunk of keyLen bytes */
+        static boolean matches(AtomicReference<Object> ref, int keyLen) {
+            return ref instanceof ValueRef && ((ValueRef) ref).len == keyLen;
+        }
+    }
+
+
+    /**
+     * Trie node. Value and children map are published and read through
+     * {@link TrieNodeAccess}, which has Java 8 and Java 17 implementation.
+     * Children map is modified in place, and may be resized, holding node
+     * write lock. Lookups read map without locking, and validate the read
+     * with optimistic stamp of node lock, thus lookup never uses entry
+     * read while map was modified.
+     */
     @RequiredArgsConstructor
     static class TrieNode<T> {
 
         @NonNull long nodeKey;
 
-        T value;
+        volatile T value;
 
-        final AtomicReference<
-                MutableLongObjectMap<
-                    AtomicReference<
-                        Object>>> childrenRef = new AtomicReference<>();
+        volatile MutableLongObjectMap<AtomicReference<Object>> children;
 
-        final ReentrantReadWriteLock rwlock = new ReentrantReadWriteLock();
+        final StampedLock lock = new StampedLock();
 
 
-        public MutableLongObjectMap<AtomicReference<Object>> getChildren() {
-            MutableLongObjectMap<AtomicReference<Object>> children = childrenRef.get();
+        public MutableLongObjectMap<AtomicReference<Object>> getChildren(InternTrie<T> trie) {
+            MutableLongObjectMap<AtomicReference<Object>> children = TrieNodeAccess.children(this);
             if (children != null) return children;
 
             children = new LongObjectHashMap<>();
-            boolean compareAndSetRes = childrenRef.compareAndSet(null, children);
-            if (compareAndSetRes) return children;
+            boolean compareAndSetRes = TrieNodeAccess.casChildren(this, children);
+            if (compareAndSetRes) {
+                trie.mapCount.increment();
+                trie.retainedBytes.add(MAP_BYTES);
+                return children;
+            }
 
-            children = childrenRef.get();
+            children = TrieNodeAccess.children(this);
             return children;
         }
 
 
-        public TrieNode<T> childNode(long nodeKey) {
-            MutableLongObjectMap<AtomicReference<Object>> children = getChildren();
+        /**
+         * Read entry stored under nodeKey. Map is read optimistically, and
+         * if it was modified meanwhile, read is repeated holding read lock.
+         * Read racing with resize may fail, its result is discarded anyway.
+         */
+        AtomicReference<Object> child(MutableLongObjectMap<AtomicReference<Object>> children, long nodeKey) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                AtomicReference<Object> ref;
+                try {
+                    ref = children.get(nodeKey);
+                }
+                catch (RuntimeException e) {
+                    ref = null;
+                }
+                if (lock.validate(stamp)) return ref;
+            }
 
-            AtomicReference<Object> ref = children.get(nodeKey);
-            if (ref != null) {
-                TrieNode<T> child = (TrieNode<T>) ref.get();
-                return child;
+            stamp = lock.readLock();
+            try {
+                return children.get(nodeKey);
+            }
+            finally {
+                lock.unlockRead(stamp);
             }
+        }
 
-            @Cleanup("unlock") WriteLock lock = rwlock.writeLock();
-            lock.lock();
-            AtomicReference<Object> childRef = (AtomicReference<Object>)
-                children.getIfAbsentPutWithKey(nodeKey, k -> new AtomicReference<>(new TrieNode<>(k)));
 
-            TrieNode<T> res = (TrieNode<T>) childRef.get();
-            return res;
+        /**
+         * Bytes added to children map table by put which made map size
+         * entries large. Table doubles when size exceeds half of it, and
+         * replaced table is garbage, thus only added slots are retained.
+         */
+        static long grownBytes(int size) {
+            int prevSize = size - 1;
+            boolean grown = prevSize >= MAP_SLOTS / 2 && Integer.bitCount(prevSize) == 1;
+            return grown ? 2L * prevSize * SLOT_BYTES : 0;
         }
 
 
-        /** Read value stored under nodeKey */
-        public T childValue(long nodeKey, UnmarshallerWithOffset<T> supplier, byte[] key, int off, int len) {
-            MutableLongObjectMap<AtomicReference<Object>> children = getChildren();
+        /**
+         * Read child node stored under nodeKey, creating it on miss.
+         * Returns null if value of colliding shorter key is stored under nodeKey.
+         */
+        public TrieNode<T> childNode(InternTrie<T> trie, long nodeKey) {
+            MutableLongObjectMap<AtomicReference<Object>> children = getChildren(trie);
+
+            AtomicReference<Object> ref = child(children, nodeKey);
+            if (ref == null) {
+                long stamp = TrieNodeAccess.lock(this);
+                try {
+                    ref = children.get(nodeKey);
+                    if (ref == null) {
+                        ref = new AtomicReference<>(new TrieNode<>(nodeKey));
+                        children.put(nodeKey, ref);
+                        trie.nodeCount.increment();
+                        trie.retainedBytes.add(NODE_BYTES + grownBytes(children.size()));
+                    }
+                }
+                finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
 
-            AtomicReference<Object> ref = children.get(nodeKey);
-            if (ref != null) {
-                T val = (T) ref.get();
-                return val;
+            if (ref instanceof ValueRef) return null;
+            return (TrieNode<T>) ref.get();
+        }
+
+
+        /** Read child node stored under nodeKey, without creating it */
+        public TrieNode<T> peekNode(long nodeKey) {
+            MutableLongObjectMap<AtomicReference<Object>> children = TrieNodeAccess.children(this);
+            if (children == null) return null;
+
+            AtomicReference<Object> ref = child(children, nodeKey);
+            if (ref == null || ref instanceof ValueRef) return null;
+            return (TrieNode<T>) ref.get();
+        }
+
+
+        /** Read value stored under nodeKey, without unmarshalling it */
+        public T peekValue(long nodeKey, int keyLen) {
+            MutableLongObjectMap<AtomicReference<Object>> children = TrieNodeAccess.children(this);
+            if (children == null) return null;
+
+            AtomicReference<Object> ref = child(children, nodeKey);
+            if (!ValueRef.matches(ref, keyLen)) return null;
+            return (T) ref.get();
+        }
+
+
+        /**
+         * Read value stored under nodeKey. On miss, value is unmarshalled
+         * outside of any lock and published with compare-and-set. Lock is
+         * held only while empty value holder is added to children map,
+         * thus slow unmarshaller never blocks misses of other keys.
+         * If two threads miss the same key at once, both unmarshall it
+         * and the loser discards its value. If entry stored under nodeKey
+         * belongs to other key, key is interned as collision.
+         */
+        public T childValue(InternTrie<T> trie, long nodeKey, int keyLen, UnmarshallerWithOffset<T> supplier, byte[] key, int off, int len) {
+            MutableLongObjectMap<AtomicReference<Object>> children = getChildren(trie);
+
+            AtomicReference<Object> ref = child(children, nodeKey);
+            if (ref == null) {
+                long stamp = TrieNodeAccess.lock(this);
+                try {
+                    ref = children.get(nodeKey);
+                    if (ref == null) {
+                        ref = new ValueRef(keyLen);
+                        children.put(nodeKey, ref);
+                        trie.retainedBytes.add(VALUE_BYTES + grownBytes(children.size()));
+                    }
+                }
+                finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+
+            if (!ValueRef.matches(ref, keyLen)) {
+                return trie.collision(key, off, len, supplier);
             }
 
-            @Cleanup("unlock") WriteLock lock = rwlock.writeLock();
-            lock.lock();
+            T val = (T) ref.get();
+            if (val != null) return val;
 
-            AtomicReference<T> valRef = (AtomicReference<T>) children.getIfAbsentPutWithKey(nodeKey,
-                    k -> new AtomicReference(supplier.unmarshall(key, off, len))
-            );
-            T val = valRef.get();
-            return val;
+            val = supplier.unmarshall(key, off, len);
+            if (ref.compareAndSet(null, val)) {
+                if (val != null) trie.valueCount.increment();
+                return val;
+            }
+            return (T) ref.get();
         }
 
 
-        public T getValue(UnmarshallerWithOffset<T> supplier, byte[] key, int off, int len) {
-            if (this.value != null) {
-                return this.value;
+        /** Read value stored in this node, publishing it the same way as childValue */
+        public T getValue(InternTrie<T> trie, UnmarshallerWithOffset<T> supplier, byte[] key, int off, int len) {
+            T val = TrieNodeAccess.value(this);
+            if (val != null) {
+                return val;
             }
 
             if (len == 0) {
                 return null;
             }
 
-            this.value = supplier.unmarshall(key, off, len);
-            return this.value;
+            val = supplier.unmarshall(key, off, len);
+            if (TrieNodeAccess.casValue(this, val)) {
+                if (val != null) trie.valueCount.increment();
+                return val;
+            }
+            return TrieNodeAccess.value(this);
+        }
+
+
+        /**
+         * Copies children of this node into given lists. Copy is made
+         * holding node read lock, thus map is never read while it is modified.
+         */
+        void copyChildren(List<TrieNode<T>> nodes, MutableLongList valueKeys, List<ValueRef> values) {
+            MutableLongObjectMap<AtomicReference<Object>> children = TrieNodeAccess.children(this);
+            if (children == null) return;
+
+            long stamp = lock.readLock();
+            try {
+                children.forEachKeyValue((key, ref) -> {
+                    if (ref instanceof ValueRef) {
+                        valueKeys.add(key);
+                        values.add((ValueRef) ref);
+                    }
+                    else {
+                        nodes.add((TrieNode<T>) ref.get());
+                    }
+                });
+            }
+            finally {
+                lock.unlockRead(stamp);
+            }
         }
     }
 
@@ -232,34 +535,9 @@ public class InternTrie<T> {
 
     @Override
     public String toString() {
-        AtomicInteger nodeCount = new AtomicInteger();
-        AtomicInteger mapCount = new AtomicInteger();
-        AtomicInteger valueCount = new AtomicInteger();
-        about(root, nodeCount, mapCount, valueCount);
-
-        String s = "nodes: " + nodeCount.get() + ", maps: " + mapCount.get() + ", values: " + valueCount.get();
+        String s = "nodes: " + nodeCount() + ", maps: " + mapCount() + ", values: " + size();
+        if (collisionCount() > 0) s += ", collisions: " + collisionCount();
         return s;
     }
 
-    void about(TrieNode node, AtomicInteger nodeCount, AtomicInteger mapCount, AtomicInteger valueCount) {
-        nodeCount.incrementAndGet();
-        if (node.value != null) valueCount.incrementAndGet();
-        if (node.childrenRef.get() == null) return;
-
-        mapCount.incrementAndGet();
-
-        MutableLongObjectMap<Object> children = (MutableLongObjectMap<Object>) node.childrenRef.get();
-
-        children.keySet().forEach(each -> {
-            Object obj = node.getChildren().get(each);
-            if (obj instanceof TrieNode) {
-                TrieNode<T> t = (TrieNode<T>) obj;
-                about(t, nodeCount, mapCount, valueCount);
-            }
-            else {
-                valueCount.incrementAndGet();
-            }
-        });
-    }
-
 }
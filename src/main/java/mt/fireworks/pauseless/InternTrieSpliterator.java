@@ -0,0 +1,201 @@
+package mt.fireworks.pauseless;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import org.eclipse.collections.api.factory.primitive.IntLists;
+import org.eclipse.collections.api.factory.primitive.LongLists;
+import org.eclipse.collections.api.list.primitive.MutableIntList;
+import org.eclipse.collections.api.list.primitive.MutableLongList;
+
+import mt.fireworks.pauseless.InternTrie.TrieNode;
+import mt.fireworks.pauseless.InternTrie.ValueRef;
+
+/**
+ * Spliterator of {@link InternTrie} key and object entries. <br>
+ *
+ * Trie is walked depth first with explicit stack of nodes. Keys are
+ * reconstructed from chunk path kept in a single buffer: when node at depth
+ * d is expanded, its chunk is written at position (d-1)*8, which is never
+ * overwritten while its subtree is walked. Thus only key of each entry is
+ * allocated, not path of each level. <br>
+ *
+ * Nodes of the smallest depth on stack are always siblings, and are walked
+ * last. Split hands half of them to new spliterator, together with copy of
+ * their parent path, thus trie is split at children map boundaries. <br>
+ *
+ * Children of each node are copied holding node lock, as in {@link InternTrieStats}. <br>
+ *
+ * Objects of colliding keys, held by trie overflow intern, are visited
+ * last, by spliterator created by trie and not by any of its splits.
+ */
+class InternTrieSpliterator<T> implements Spliterator<Map.Entry<byte[], T>> {
+
+    final ArrayList<TrieNode<T>> stackNodes = new ArrayList<>();
+    final MutableIntList stackDepths = IntLists.mutable.empty();
+    final ArrayDeque<Map.Entry<byte[], T>> entries = new ArrayDeque<>();
+
+    /** Chunks of path to currently walked node */
+    byte[] path;
+    long estimate;
+
+    /** First expanded node is filtered by remaining prefix bytes, shorter than a chunk */
+    TrieNode<T> filterNode;
+    long filterKey;
+    int filterLen;
+
+    /** Overflow intern not visited yet, and prefix its keys are filtered by */
+    HashInterner<T> overflow;
+    byte[] overflowPrefix;
+
+    final ArrayList<TrieNode<T>> childNodes = new ArrayList<>();
+    final MutableLongList valueKeys = LongLists.mutable.empty();
+    final ArrayList<ValueRef> values = new ArrayList<>();
+
+
+    InternTrieSpliterator(TrieNode<T> node, byte[] path, int depth, long estimate) {
+        this.path = path;
+        this.estimate = estimate;
+        if (node != null) {
+            stackNodes.add(node);
+            stackDepths.add(depth);
+        }
+    }
+
+
+    static <T> InternTrieSpliterator<T> of(InternTrie<T> trie, byte[] prefix) {
+        int fullChunks = prefix.length / 8;
+        TrieNode<T> node = trie.root;
+        for (int idx = 0; idx < fullChunks && node != null; idx++) {
+            node = node.peekNode(BitsAndBytes.bytes2long(prefix, idx * 8, 8));
+        }
+
+        byte[] path = Arrays.copyOf(prefix, fullChunks * 8);
+        InternTrieSpliterator<T> spliterator = new InternTrieSpliterator<>(node, path, fullChunks, Long.MAX_VALUE);
+        spliterator.overflow = trie.overflow;
+        spliterator.overflowPrefix = prefix;
+
+        int filterLen = prefix.length - fullChunks * 8;
+        if (filterLen > 0) {
+            spliterator.filterNode = node;
+            spliterator.filterLen = filterLen;
+            spliterator.filterKey = BitsAndBytes.bytes2long(prefix, fullChunks * 8, filterLen);
+        }
+        return spliterator;
+    }
+
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Map.Entry<byte[], T>> action) {
+        while (entries.isEmpty()) {
+            int top = stackNodes.size() - 1;
+            if (top < 0) {
+                if (overflow == null) return false;
+                expandOverflow();
+                continue;
+            }
+
+            TrieNode<T> node = stackNodes.remove(top);
+            int depth = stackDepths.removeAtIndex(top);
+            expand(node, depth);
+        }
+
+        action.accept(entries.poll());
+        return true;
+    }
+
+
+    @Override
+    public Spliterator<Map.Entry<byte[], T>> trySplit() {
+        // descend through chains of single child, as in keys with common prefix
+        while (stackNodes.size() == 1) {
+            int depth = stackDepths.removeAtIndex(0);
+            expand(stackNodes.remove(0), depth);
+        }
+
+        if (stackNodes.isEmpty()) {
+            return null;
+        }
+
+        int depth = stackDepths.get(0);
+        int siblings = 1;
+        while (siblings < stackDepths.size() && stackDepths.get(siblings) == depth) siblings++;
+        if (siblings < 2) {
+            return null;
+        }
+
+        int half = siblings / 2;
+        InternTrieSpliterator<T> split = new InternTrieSpliterator<>(null, Arrays.copyOf(path, (depth - 1) * 8), depth, estimate >>>= 1);
+        for (int idx = 0; idx < half; idx++) {
+            split.stackNodes.add(stackNodes.get(idx));
+            split.stackDepths.add(depth);
+        }
+        stackNodes.subList(0, half).clear();
+        for (int idx = 0; idx < half; idx++) stackDepths.removeAtIndex(0);
+        return split;
+    }
+
+
+    void expand(TrieNode<T> node, int depth) {
+        int pathLen = depth * 8;
+        if (depth > 0) {
+            if (path.length < pathLen) path = Arrays.copyOf(path, Math.max(pathLen, path.length * 2));
+            BitsAndBytes.long2bytes(node.nodeKey, 8, path, pathLen - 8);
+        }
+
+        childNodes.clear();
+        valueKeys.clear();
+        values.clear();
+        node.copyChildren(childNodes, valueKeys, values);
+
+        boolean filtered = node == filterNode;
+        filterNode = null;
+
+        T value = node.value;
+        if (value != null && !filtered) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(Arrays.copyOf(path, pathLen), value));
+        }
+
+        for (int idx = 0; idx < values.size(); idx++) {
+            ValueRef ref = values.get(idx);
+            T val = (T) ref.get();
+            if (val == null) continue;
+
+            long key = valueKeys.get(idx);
+            if (filtered && (ref.len < filterLen || key >>> 8 * (ref.len - filterLen) != filterKey)) continue;
+
+            byte[] entryKey = Arrays.copyOf(path, pathLen + ref.len);
+            BitsAndBytes.long2bytes(key, ref.len, entryKey, pathLen);
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entryKey, val));
+        }
+
+        for (TrieNode<T> child : childNodes) {
+            if (filtered && child.nodeKey >>> 8 * (8 - filterLen) != filterKey) continue;
+            stackNodes.add(child);
+            stackDepths.add(depth + 1);
+        }
+    }
+
+
+    void expandOverflow() {
+        byte[] prefix = overflowPrefix;
+        overflow.forEach((key, value) -> {
+            if (key.length < prefix.length || !BitsAndBytes.equals(key, 0, prefix, 0, prefix.length)) return;
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+        });
+        overflow = null;
+    }
+
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+
+    @Override
+    public int characteristics() {
+        return DISTINCT | NONNULL | CONCURRENT;
+    }
+
+}
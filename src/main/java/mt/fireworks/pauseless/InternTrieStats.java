@@ -0,0 +1,187 @@
+package mt.fireworks.pauseless;
+
+import java.util.ArrayList;
+
+import org.eclipse.collections.api.factory.primitive.LongLists;
+import org.eclipse.collections.api.list.primitive.MutableLongList;
+
+import mt.fireworks.pauseless.InternTrie.TrieNode;
+import mt.fireworks.pauseless.InternTrie.ValueRef;
+
+import lombok.Getter;
+
+/**
+ * Detailed statistics of {@link InternTrie}, collected by walking whole trie:
+ *  - number of nodes and values per trie level
+ *  - average and max fan-out (number of children) of nodes per level
+ *  - distribution of key lengths of interned values
+ *
+ * Trie is walked level by level, without recursion, thus walk depth doesn't
+ * depend on key length. Children of each node are copied holding node lock,
+ * thus children maps are never read while they are modified, and interning
+ * continues during walk. <br>
+ *
+ * Statistics are consistent per node, not a snapshot of whole trie: each
+ * node is seen as it was when its children were copied, and values interned
+ * during walk may or may not be counted. A trie wide snapshot would need
+ * insertion sequence in every value holder, or blocking interning during
+ * walk, both at odds with purpose of trie. When trie is not modified during
+ * walk, statistics are exact. <br>
+ *
+ * For cheap, always up to date totals use {@link InternTrie#size()},
+ * {@link InternTrie#nodeCount()} and {@link InternTrie#estimatedRetainedBytes()}.
+ */
+public class InternTrieStats {
+
+    /** Total number of nodes, including root */
+    @Getter long nodes;
+
+    /** Total number of values, including values of colliding keys */
+    @Getter long values;
+
+    /**
+     * Number of values of colliding keys, held by trie overflow intern.
+     * They are counted in values and values per key length, but not per level.
+     */
+    @Getter long collisions;
+
+    final MutableLongList nodesPerLevel = LongLists.mutable.empty();
+    final MutableLongList valuesPerLevel = LongLists.mutable.empty();
+    final MutableLongList childrenPerLevel = LongLists.mutable.empty();
+    final MutableLongList maxFanOutPerLevel = LongLists.mutable.empty();
+    final MutableLongList valuesPerKeyLength = LongLists.mutable.empty();
+
+
+    static <T> InternTrieStats of(InternTrie<T> trie) {
+        InternTrieStats stats = new InternTrieStats();
+
+        ArrayList<TrieNode<T>> level = new ArrayList<>();
+        ArrayList<TrieNode<T>> nextLevel = new ArrayList<>();
+        ArrayList<ValueRef> children = new ArrayList<>();
+        MutableLongList childKeys = LongLists.mutable.empty();
+        level.add(trie.root);
+
+        for (int depth = 0; !level.isEmpty(); depth++) {
+            for (TrieNode<T> node : level) {
+                int before = nextLevel.size();
+                children.clear();
+                childKeys.clear();
+                node.copyChildren(nextLevel, childKeys, children);
+
+                int fanOut = nextLevel.size() - before + children.size();
+                stats.node(depth, fanOut);
+
+                if (node.value != null) {
+                    stats.value(depth, depth * 8);
+                }
+                for (ValueRef ref : children) {
+                    if (ref.get() != null) stats.value(depth, depth * 8 + ref.len);
+                }
+            }
+
+            ArrayList<TrieNode<T>> walked = level;
+            level = nextLevel;
+            nextLevel = walked;
+            nextLevel.clear();
+        }
+
+        HashInterner<T> overflow = trie.overflow;
+        if (overflow != null) {
+            overflow.forEach((key, value) -> stats.collision(key.length));
+        }
+
+        return stats;
+    }
+
+
+    void node(int depth, int fanOut) {
+        nodes++;
+        add(nodesPerLevel, depth, 1);
+        add(childrenPerLevel, depth, fanOut);
+        add(maxFanOutPerLevel, depth, 0);
+        if (maxFanOutPerLevel.get(depth) < fanOut) {
+            maxFanOutPerLevel.set(depth, fanOut);
+        }
+    }
+
+
+    void value(int depth, int keyLength) {
+        values++;
+        add(valuesPerLevel, depth, 1);
+        add(valuesPerKeyLength, keyLength, 1);
+    }
+
+
+    void collision(int keyLength) {
+        values++;
+        collisions++;
+        add(valuesPerKeyLength, keyLength, 1);
+    }
+
+
+    static void add(MutableLongList list, int idx, long delta) {
+        while (list.size() <= idx) list.add(0);
+        list.set(idx, list.get(idx) + delta);
+    }
+
+
+    /** Number of trie levels, root being level 0 */
+    public int getLevels() {
+        return nodesPerLevel.size();
+    }
+
+    /** Number of nodes at each level */
+    public long[] getNodesPerLevel() {
+        return nodesPerLevel.toArray();
+    }
+
+    /** Number of values held by nodes at each level */
+    public long[] getValuesPerLevel() {
+        return valuesPerLevel.toArray();
+    }
+
+    /** Max number of children of single node, at each level */
+    public long[] getMaxFanOutPerLevel() {
+        return maxFanOutPerLevel.toArray();
+    }
+
+    /** Average number of children of node, at each level */
+    public double[] getAvgFanOutPerLevel() {
+        double[] avg = new double[nodesPerLevel.size()];
+        for (int idx = 0; idx < avg.length; idx++) {
+            avg[idx] = (double) childrenPerLevel.get(idx) / nodesPerLevel.get(idx);
+        }
+        return avg;
+    }
+
+    /** Number of values by length of their key in bytes */
+    public long[] getValuesPerKeyLength() {
+        return valuesPerKeyLength.toArray();
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("nodes: ").append(nodes).append(", values: ").append(values);
+        if (collisions > 0) sb.append(", collisions: ").append(collisions);
+        sb.append('\n');
+
+        sb.append(String.format("  %5s %10s %10s %12s %12s%n", "level", "nodes", "values", "avg fan-out", "max fan-out"));
+        double[] avgFanOut = getAvgFanOutPerLevel();
+        for (int idx = 0; idx < nodesPerLevel.size(); idx++) {
+            long levelValues = idx < valuesPerLevel.size() ? valuesPerLevel.get(idx) : 0;
+            sb.append(String.format("  %5d %10d %10d %12.2f %12d%n",
+                    idx, nodesPerLevel.get(idx), levelValues, avgFanOut[idx], maxFanOutPerLevel.get(idx)));
+        }
+
+        sb.append(String.format("  %10s %10s%n", "key length", "values"));
+        for (int idx = 0; idx < valuesPerKeyLength.size(); idx++) {
+            if (valuesPerKeyLength.get(idx) == 0) continue;
+            sb.append(String.format("  %10d %10d%n", idx, valuesPerKeyLength.get(idx)));
+        }
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,122 @@
+package mt.fireworks.pauseless;
+
+/**
+ * Intern of objects keyed by their byte array representation.
+ * Object is unmarshalled only the first time its data is seen, and
+ * afterwards the same instance is returned for the same data. <br>
+ *
+ * Implementations differ in how keys are stored and looked up:
+ *  - {@link InternTrie} walks a trie of 8 byte key chunks, and is
+ *    fastest for short keys
+ *  - {@link HashInterner} compares keys stored in a byte slab, with
+ *    a single probe of open addressing hash table for most lookups,
+ *    thus it is better suited for longer keys
+ *
+ * Thus implementation can be chosen per field. See <code>InternerBench</code>
+ * for comparison of implementations on different key lengths.
+ *
+ * @param <T> The type of interned objects.
+ */
+public interface Interner<T> {
+
+    /**
+     * Interface for unmarshalling byte arrays into objects of type T.
+     *
+     * @param <T> The type of object to be unmarshalled.
+     */
+    public interface Unmarshaller<T> {
+        T unmarshall(byte[] objData);
+    }
+
+    /**
+     * Interface for unmarshalling byte arrays into objects of type T.
+     * It adds offset logic to basic <code>Unmarshaller</code>.
+     *
+     * @param <T> The type of object to be unmarshalled.
+     */
+    public interface UnmarshallerWithOffset<T> {
+        T unmarshall(byte[] objData, int off, int len);
+    }
+
+    /**
+     * Interface for unmarshalling key bytes into objects of type T.
+     * Key is given as read only view over caller's array, thus unmarshaller
+     * can't modify data, nor read bytes outside of key.
+     *
+     * @param <T> The type of object to be unmarshalled.
+     */
+    public interface KeyViewUnmarshaller<T> {
+        T unmarshall(KeyView key);
+    }
+
+
+    /**
+     * Interns an object based on its byte array representation.
+     *
+     * @param objData      The byte array representation of the object.
+     * @param unmarshaller The unmarshaller to convert byte array to object.
+     * @return The interned object.
+     */
+    default T intern(byte[] objData, Unmarshaller<T> unmarshaller) {
+        // lookup first, so adapter lambda is allocated only on miss
+        T value = get(objData, 0, objData.length);
+        if (value != null) return value;
+        return intern(objData, 0, objData.length, (data, off, len) -> unmarshaller.unmarshall(data));
+    }
+
+
+    /**
+     * Interns an object based on its byte array representation.
+     *
+     * @param objData      The byte array representation of the object.
+     * @param unmarshaller The unmarshaller to convert byte array to object.
+     * @return The interned object.
+     */
+    default T intern(byte[] objData, UnmarshallerWithOffset<T> unmarshaller) {
+        return intern(objData, 0, objData.length, unmarshaller);
+    }
+
+
+    /**
+     * Interns an object based on its byte array representation.
+     *
+     * @param objData      The byte array representation of the object.
+     * @param off          The starting offset in the byte array.
+     * @param len          The length of the byte array to use.
+     * @param unmarshaller The unmarshaller to convert byte array to object.
+     * @return The interned object.
+     */
+    T intern(byte[] objData, int off, int len, UnmarshallerWithOffset<T> unmarshaller);
+
+
+    /**
+     * Interns an object based on its byte array representation.
+     * Unmarshaller gets read only view of key, which is created only on miss.
+     * Method has its own name, as overloading intern would make method
+     * references like <code>String::new</code> ambiguous.
+     *
+     * @param objData      The byte array representation of the object.
+     * @param off          The starting offset in the byte array.
+     * @param len          The length of the byte array to use.
+     * @param unmarshaller The unmarshaller to convert key view to object.
+     * @return The interned object.
+     */
+    default T internView(byte[] objData, int off, int len, KeyViewUnmarshaller<T> unmarshaller) {
+        T value = get(objData, off, len);
+        if (value != null) return value;
+        return intern(objData, off, len, (data, o, l) -> unmarshaller.unmarshall(new KeyView(data, o, l)));
+    }
+
+
+    /**
+     * Returns object previously interned under given byte array representation.
+     * Unlike intern, this method never unmarshalls data.
+     *
+     * @param objData      The byte array representation of the object.
+     * @param off          The starting offset in the byte array.
+     * @param len          The length of the byte array to use.
+     * @return The interned object, or null if data was not interned yet.
+     */
+    T get(byte[] objData, int off, int len);
+
+}
@@ -0,0 +1,64 @@
+package mt.fireworks.pauseless;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.Cleanup;
+
+/**
+ * Append only storage of key bytes, shared by all keys of an interner. <br>
+ *
+ * Keys are copied into chunks of {@link #CHUNK} bytes, keys longer than chunk
+ * get chunk of their own. Appended key is referenced by long, holding chunk
+ * index and offset within chunk. Appends are serialized, while reads are
+ * lock free: reader must obtain key reference through a volatile read
+ * which happened after append, as chunks are never modified once key
+ * is written into them.
+ */
+class KeySlab {
+
+    static final int CHUNK = 1 << 16;
+
+    volatile byte[][] chunks = new byte[][] { new byte[CHUNK] };
+
+    /** Writer state, guarded by lock */
+    int chunkIdx, chunkOff;
+    final ReentrantLock lock = new ReentrantLock();
+
+
+    /** Copies key into slab and returns its reference */
+    long append(byte[] objData, int off, int len) {
+        @Cleanup("unlock") ReentrantLock l = lock;
+        l.lock();
+
+        byte[][] c = chunks;
+        if (chunkOff + len > c[chunkIdx].length) {
+            byte[][] grown = new byte[c.length + 1][];
+            System.arraycopy(c, 0, grown, 0, c.length);
+            grown[c.length] = new byte[Math.max(CHUNK, len)];
+            chunkIdx = c.length;
+            chunkOff = 0;
+            chunks = c = grown;
+        }
+
+        System.arraycopy(objData, off, c[chunkIdx], chunkOff, len);
+        long keyRef = ((long) chunkIdx << 32) | chunkOff;
+        chunkOff += len;
+        return keyRef;
+    }
+
+
+    /** Compares key referenced by keyRef, of length len, with given key */
+    boolean equals(long keyRef, byte[] objData, int off, int len) {
+        byte[] chunk = chunks[(int) (keyRef >>> 32)];
+        return BitsAndBytes.equals(chunk, (int) keyRef, objData, off, len);
+    }
+
+
+    /** Copy of key referenced by keyRef, of length len */
+    byte[] copyOf(long keyRef, int len) {
+        byte[] key = new byte[len];
+        System.arraycopy(chunks[(int) (keyRef >>> 32)], (int) keyRef, key, 0, len);
+        return key;
+    }
+
+}
@@ -0,0 +1,85 @@
+package mt.fireworks.pauseless;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import lombok.Getter;
+
+/**
+ * Read only view of key bytes, given to {@link Interner.KeyViewUnmarshaller}. <br>
+ *
+ * View wraps caller's array without copying it, and exposes no way to modify
+ * it, thus unmarshaller can't corrupt data which is being interned. View is
+ * valid only during unmarshall call, as caller may reuse its array afterwards.
+ * Unmarshaller which needs to keep key bytes must copy them with
+ * {@link #copyTo(byte[], int)} or {@link #toByteArray()}.
+ */
+public final class KeyView {
+
+    final byte[] data;
+    final int off;
+    @Getter final int length;
+
+
+    public KeyView(byte[] data, int off, int length) {
+        if (off < 0 || length < 0 || off + length > data.length)
+            throw new IndexOutOfBoundsException("off: " + off + ", length: " + length + ", array length: " + data.length);
+
+        this.data = data;
+        this.off = off;
+        this.length = length;
+    }
+
+
+    /** Byte at given index of key */
+    public byte byteAt(int idx) {
+        if (idx < 0 || idx >= length)
+            throw new IndexOutOfBoundsException("idx: " + idx + ", length: " + length);
+        return data[off + idx];
+    }
+
+
+    /** Copies key bytes into dest array, starting at destOff */
+    public void copyTo(byte[] dest, int destOff) {
+        System.arraycopy(data, off, dest, destOff, length);
+    }
+
+
+    /** Copy of key bytes */
+    public byte[] toByteArray() {
+        byte[] copy = new byte[length];
+        copyTo(copy, 0);
+        return copy;
+    }
+
+
+    /** Read only buffer over key bytes, without copying them */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(data, off, length).slice().asReadOnlyBuffer();
+    }
+
+
+    /** Decodes key bytes with given charset */
+    public String toString(Charset charset) {
+        return new String(data, off, length, charset);
+    }
+
+
+    /** True if key bytes are equal to given bytes */
+    public boolean contentEquals(byte[] other, int otherOff, int otherLen) {
+        return length == otherLen && BitsAndBytes.equals(data, off, other, otherOff, otherLen);
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length * 3);
+        for (int idx = 0; idx < length; idx++) {
+            if (idx > 0) sb.append(' ');
+            sb.append(Character.forDigit((data[off + idx] >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(data[off + idx] & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+}
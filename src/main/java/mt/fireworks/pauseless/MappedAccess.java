@@ -0,0 +1,52 @@
+package mt.fireworks.pauseless;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ordered access to memory mapped {@link MappedInternDictionary} file. <br>
+ *
+ * Appender writes key, its offset and then its index slot with release store,
+ * and reader reads index slot with acquire load, thus reader which sees the
+ * slot sees the whole key. Orders of accesses matter to processes mapping the
+ * same file, and not only to threads of one JVM. <br>
+ *
+ * This is Java 8 implementation. Java 8 has no ordered access to buffer memory,
+ * thus buffer access is ordered by access of a volatile field next to it, which
+ * HotSpot compiles to memory barriers, yet memory model doesn't promise it. Java
+ * 17 build of this class, found in <code>src/main/java17</code> and packaged as
+ * multi-release jar entry, uses release and acquire access of buffer VarHandles.
+ */
+final class MappedAccess {
+
+    static volatile int fence;
+
+
+    private MappedAccess() {}
+
+
+    static long getLongAcquire(ByteBuffer buf, int pos) {
+        long value = buf.getLong(pos);
+        int f = fence;
+        return value;
+    }
+
+
+    static void putLongRelease(ByteBuffer buf, int pos, long value) {
+        fence = 0;
+        buf.putLong(pos, value);
+    }
+
+
+    static int getIntAcquire(ByteBuffer buf, int pos) {
+        int value = buf.getInt(pos);
+        int f = fence;
+        return value;
+    }
+
+
+    static void putIntRelease(ByteBuffer buf, int pos, int value) {
+        fence = 0;
+        buf.putInt(pos, value);
+    }
+
+}
@@ -0,0 +1,442 @@
+package mt.fireworks.pauseless;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.Cleanup;
+import lombok.Getter;
+
+/**
+ * Intern dictionary shared by multiple processes through memory mapped file. <br>
+ *
+ * When several JVMs on a host intern the same reference values, each of them
+ * builds identical interner. MappedInternDictionary keeps keys in a file which
+ * all of them map. Each distinct key gets stable id, equal in all processes,
+ * and newly started JVM sees all keys appended so far instantly. Objects can
+ * not be shared between heaps, thus each JVM keeps only on-heap id to object
+ * cache, and unmarshalls object the first time it sees the key. <br>
+ *
+ * File is laid out as:
+ *  - header: magic, version, capacity, slab size, key count and slab tail
+ *  - index: open addressing table of slots, each slot holding key hash and id
+ *  - offsets: slab offset of each id
+ *  - slab: appended keys, each prefixed with its length
+ *
+ * Readers never lock. Appends are serialized between processes with
+ * {@link FileLock} on header, and between threads of a process with
+ * a lock, thus appends need no compare-and-set. Each byte of index, offsets
+ * and slab is written at most once. Appender writes key and its offset, and
+ * then publishes its index slot with release store. Reader reads index slot
+ * with acquire load, thus reader which finds the slot sees whole key, see
+ * {@link MappedAccess}. Reader which misses the slot falls back to locked
+ * path, which sees the append completed. <br>
+ *
+ * File lock is held by the whole JVM, and JVM refuses to take overlapping
+ * file lock twice. Thus all instances of the same file within a JVM share
+ * one in-process lock, registered by canonical path of file, which is
+ * always taken before file lock. <br>
+ *
+ * Capacity and slab size are fixed when file is created. When dictionary is
+ * full, values of new keys are unmarshalled but not interned. Key hash is part
+ * of file format, thus all processes must use the same version of this class.
+ */
+public class MappedInternDictionary<T> implements Interner<T>, Closeable {
+
+    static final long MAGIC = 0x5041555345444943l; // "PAUSEDIC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    static final int MAGIC_POS = 0;
+    static final int VERSION_POS = 8;
+    static final int CAPACITY_POS = 12;
+    static final int SLAB_SIZE_POS = 16;
+    static final int COUNT_POS = 20;
+    static final int TAIL_POS = 24;
+
+    final RandomAccessFile file;
+    final FileChannel channel;
+    final MappedByteBuffer buf;
+
+    /** Max number of keys */
+    @Getter final int capacity;
+
+    /** Max number of bytes of all keys, including 4 bytes length prefix per key */
+    @Getter final int slabSize;
+
+    final int indexMask;
+    final int offsetsPos;
+    final int slabPos;
+
+    /** On-heap objects of this process, by key id */
+    final AtomicReferenceArray<T> values;
+
+    /** Lock shared by all instances of this file in JVM, guarding file lock */
+    final ReentrantLock lock;
+    final String canonicalPath;
+    final AtomicBoolean closed = new AtomicBoolean();
+
+    /** Locks of opened dictionary files, by canonical path */
+    static final ConcurrentHashMap<String, PathLock> PATH_LOCKS = new ConcurrentHashMap<>();
+
+    static class PathLock {
+        final ReentrantLock lock = new ReentrantLock();
+        int instances;
+    }
+
+
+    /**
+     * Opens dictionary file, creating it if it doesn't exist yet. If file
+     * exists, capacity and slab size stored in it are used.
+     *
+     * @param path     dictionary file
+     * @param capacity max number of keys
+     * @param slabSize max number of bytes of all keys, counting 4 bytes per key for its length
+     */
+    public static <T> MappedInternDictionary<T> open(File path, int capacity, int slabSize) throws IOException {
+        return new MappedInternDictionary<>(path, capacity, slabSize);
+    }
+
+
+    MappedInternDictionary(File path, int capacity, int slabSize) throws IOException {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be >= 1 and now is: " + capacity);
+        if (slabSize < 1)
+            throw new IllegalArgumentException("slabSize must be >= 1 and now is: " + slabSize);
+
+        this.canonicalPath = path.getCanonicalPath();
+        this.lock = acquirePathLock(canonicalPath);
+
+        try {
+            this.file = new RandomAccessFile(path, "rw");
+        }
+        catch (IOException | RuntimeException e) {
+            releasePathLock(canonicalPath);
+            throw e;
+        }
+        this.channel = file.getChannel();
+
+        try {
+            @Cleanup("unlock") ReentrantLock l = lock;
+            l.lock();
+            @Cleanup FileLock fileLock = channel.lock(0, HEADER_SIZE, false);
+            if (file.length() == 0) {
+                long size = fileSize(capacity, slabSize);
+                if (size > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException("dictionary of " + size + " bytes is too large to be mapped");
+
+                file.setLength(size);
+                MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+                header.putInt(VERSION_POS, VERSION);
+                header.putInt(CAPACITY_POS, capacity);
+                header.putInt(SLAB_SIZE_POS, slabSize);
+                header.putLong(MAGIC_POS, MAGIC);
+                header.force();
+            }
+
+            MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getLong(MAGIC_POS) != MAGIC)
+                throw new IOException("'" + path + "' is not intern dictionary");
+            if (header.getInt(VERSION_POS) != VERSION)
+                throw new IOException("'" + path + "' has unsupported version: " + header.getInt(VERSION_POS));
+
+            this.capacity = header.getInt(CAPACITY_POS);
+            this.slabSize = header.getInt(SLAB_SIZE_POS);
+            if (this.capacity < 1 || this.slabSize < 1)
+                throw new IOException("'" + path + "' has invalid capacity: " + this.capacity + " or slab size: " + this.slabSize);
+
+            long size = fileSize(this.capacity, this.slabSize);
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("'" + path + "' of " + size + " bytes is too large to be mapped");
+
+            int indexSize = indexSize(this.capacity);
+            this.indexMask = indexSize - 1;
+            this.offsetsPos = HEADER_SIZE + indexSize * 8;
+            this.slabPos = offsetsPos + this.capacity * 4;
+            this.buf = channel.map(MapMode.READ_WRITE, 0, size);
+        }
+        catch (IOException | RuntimeException e) {
+            file.close();
+            releasePathLock(canonicalPath);
+            throw e;
+        }
+
+        this.values = new AtomicReferenceArray<>(this.capacity);
+    }
+
+
+    static ReentrantLock acquirePathLock(String canonicalPath) {
+        PathLock pathLock = PATH_LOCKS.compute(canonicalPath, (p, l) -> {
+            if (l == null) l = new PathLock();
+            l.instances++;
+            return l;
+        });
+        return pathLock.lock;
+    }
+
+
+    static void releasePathLock(String canonicalPath) {
+        PATH_LOCKS.computeIfPresent(canonicalPath, (p, l) -> --l.instances == 0 ? null : l);
+    }
+
+
+    static int indexSize(int capacity) {
+        return Integer.highestOneBit(Math.max(capacity, 4) * 2 - 1) << 1;
+    }
+
+    static long fileSize(int capacity, int slabSize) {
+        return HEADER_SIZE + indexSize(capacity) * 8l + capacity * 4l + slabSize;
+    }
+
+
+    /**
+     * Interns an object based on its byte array representation.
+     *
+     * @param objData      The byte array representation of the object.
+     * @param off          The starting offset in the byte array.
+     * @param len          The length of the byte array to use.
+     * @param unmarshaller The unmarshaller to convert byte array to object.
+     * @return The interned object.
+     */
+    @Override
+    public T intern(byte[] objData, int off, int len, UnmarshallerWithOffset<T> unmarshaller) {
+        if (len == 0) {
+            return null;
+        }
+
+        int hash = BitsAndBytes.hash(objData, off, len);
+        int id = find(hash, objData, off, len);
+        if (id >= 0) {
+            T value = values.get(id);
+            if (value != null) return value;
+        }
+
+        T value = unmarshaller.unmarshall(objData, off, len);
+        if (value == null) {
+            return null;
+        }
+
+        if (id < 0) {
+            id = append(hash, objData, off, len);
+            if (id < 0) return value;
+        }
+
+        if (values.compareAndSet(id, null, value)) {
+            return value;
+        }
+        return values.get(id);
+    }
+
+
+    /**
+     * Returns object previously interned by this process.
+     *
+     * @return The interned object, or null if data was not interned yet.
+     */
+    @Override
+    public T get(byte[] objData, int off, int len) {
+        int id = id(objData, off, len);
+        return id < 0 ? null : values.get(id);
+    }
+
+
+    /**
+     * Returns stable id of key, equal in all processes sharing dictionary.
+     *
+     * @return key id, or -1 if key is not in dictionary
+     */
+    public int id(byte[] objData, int off, int len) {
+        if (len == 0) {
+            return -1;
+        }
+
+        int hash = BitsAndBytes.hash(objData, off, len);
+        return find(hash, objData, off, len);
+    }
+
+
+    /**
+     * Returns object stored under key id. If this process didn't intern
+     * the object yet, it is unmarshalled from key bytes in dictionary.
+     *
+     * @return The interned object, or null if there is no such id.
+     */
+    public T byId(int id, UnmarshallerWithOffset<T> unmarshaller) {
+        if (id < 0 || id >= capacity) {
+            return null;
+        }
+
+        T value = values.get(id);
+        if (value != null) {
+            return value;
+        }
+
+        byte[] key = readKey(id);
+        if (key == null) {
+            return null;
+        }
+
+        value = unmarshaller.unmarshall(key, 0, key.length);
+        if (values.compareAndSet(id, null, value)) {
+            return value;
+        }
+        return values.get(id);
+    }
+
+
+    /**
+     * Copies key of id from dictionary. Unlike lookups, there is nothing to
+     * validate partially appended key against, thus key is read holding locks.
+     */
+    byte[] readKey(int id) {
+        @Cleanup("unlock") ReentrantLock l = lock;
+        l.lock();
+
+        try {
+            @Cleanup FileLock fileLock = channel.lock(0, HEADER_SIZE, false);
+
+            int entryPos = buf.getInt(offsetsPos + id * 4) - 1;
+            if (entryPos < 0) {
+                return null;
+            }
+
+            byte[] key = new byte[buf.getInt(slabPos + entryPos)];
+            for (int idx = 0; idx < key.length; idx++) {
+                key[idx] = buf.get(slabPos + entryPos + 4 + idx);
+            }
+            return key;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /** Number of keys in dictionary, appended by any process */
+    public int size() {
+        return MappedAccess.getIntAcquire(buf, COUNT_POS);
+    }
+
+
+    /** Probes index for key, returning its id or -1 */
+    int find(int hash, byte[] objData, int off, int len) {
+        for (int slot = hash & indexMask; ; slot = (slot + 1) & indexMask) {
+            long s = MappedAccess.getLongAcquire(buf, HEADER_SIZE + slot * 8);
+            if (s == 0) {
+                return -1;
+            }
+
+            if ((int) (s >>> 32) != hash) {
+                continue;
+            }
+
+            int id = (int) s - 1;
+            if (id < 0 || id >= capacity) {
+                continue;
+            }
+
+            if (keyEquals(id, objData, off, len)) {
+                return id;
+            }
+        }
+    }
+
+
+    boolean keyEquals(int id, byte[] objData, int off, int len) {
+        int entryPos = buf.getInt(offsetsPos + id * 4) - 1;
+        if (entryPos < 0 || entryPos + 4 + len > slabSize) {
+            return false;
+        }
+
+        if (buf.getInt(slabPos + entryPos) != len) {
+            return false;
+        }
+
+        int keyPos = slabPos + entryPos + 4;
+        for (int idx = 0; idx < len; idx++) {
+            if (buf.get(keyPos + idx) != objData[off + idx]) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Appends key to dictionary, holding both process and file lock.
+     * Count and tail only grow, thus dictionary found full without locks
+     * is full, and misses of new keys in full dictionary take no locks.
+     *
+     * @return id of key, or -1 if dictionary is full
+     */
+    int append(int hash, byte[] objData, int off, int len) {
+        if (isFull(len)) {
+            return -1;
+        }
+
+        @Cleanup("unlock") ReentrantLock l = lock;
+        l.lock();
+
+        try {
+            @Cleanup FileLock fileLock = channel.lock(0, HEADER_SIZE, false);
+
+            // key may have been appended by other thread or process meanwhile
+            int id = find(hash, objData, off, len);
+            if (id >= 0) {
+                return id;
+            }
+
+            if (isFull(len)) {
+                return -1;
+            }
+
+            int count = buf.getInt(COUNT_POS);
+            int tail = buf.getInt(TAIL_POS);
+
+            id = count;
+            int entryPos = slabPos + tail;
+            buf.putInt(entryPos, len);
+            for (int idx = 0; idx < len; idx++) {
+                buf.put(entryPos + 4 + idx, objData[off + idx]);
+            }
+            buf.putInt(offsetsPos + id * 4, tail + 1);
+
+            int slot = hash & indexMask;
+            while (buf.getLong(HEADER_SIZE + slot * 8) != 0) {
+                slot = (slot + 1) & indexMask;
+            }
+            MappedAccess.putLongRelease(buf, HEADER_SIZE + slot * 8, ((long) hash << 32) | (id + 1));
+
+            buf.putInt(TAIL_POS, tail + 4 + len);
+            MappedAccess.putIntRelease(buf, COUNT_POS, count + 1);
+            return id;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /** True if there is no room for one more key of len bytes */
+    boolean isFull(int len) {
+        return size() >= capacity || (long) buf.getInt(TAIL_POS) + 4 + len > slabSize;
+    }
+
+
+    /** Closes dictionary file. Mapping is released once instance is collected. */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        channel.close();
+        file.close();
+        releasePathLock(canonicalPath);
+    }
+
+}
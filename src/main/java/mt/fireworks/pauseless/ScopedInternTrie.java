@@ -0,0 +1,309 @@
+package mt.fireworks.pauseless;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.eclipse.collections.impl.map.mutable.primitive.LongObjectHashMap;
+
+import mt.fireworks.pauseless.Interner.UnmarshallerWithOffset;
+
+import lombok.Getter;
+
+/**
+ * Two level intern structure: thread confined scope tries backed by
+ * one shared, read mostly, global {@link Interner}, by default an {@link InternTrie}. <br>
+ *
+ * Creating temporary InternTrie per deserialization job means hot values
+ * are deserialized again in every job. Sharing one InternTrie between all
+ * jobs means every thread contends on the same trie nodes. ScopedInternTrie
+ * sits in between. Each job opens its own {@link Scope}: <br>
+ *
+ *   ScopedInternTrie<String> interns = new ScopedInternTrie<>();
+ *   try (ScopedInternTrie.Scope<String> scope = interns.openScope()) {
+ *       String s = scope.intern(data, (obj, off, len) -> new String(obj, off, len, UTF_8));
+ *   }
+ *
+ * Scope is used by one thread only and thus needs no locks nor atomics.
+ * On scope miss, value is looked up in global trie. On global miss, value
+ * is unmarshalled and kept in scope. Keys which recur across scopes, that
+ * is keys missed by at least <code>promoteAfter</code> scopes, are promoted
+ * to global trie so later scopes find them without unmarshalling. <br>
+ *
+ * Scope recurrence is counted in fixed size count-min sketch, thus
+ * counting uses constant memory no matter how many distinct keys
+ * are seen. Sketch counters are halved periodically, so counts of keys
+ * not seen lately decay to zero, and key is promoted only if it recurs
+ * within last few thousands of global misses. Halving is spread over
+ * sightings, each of them halves a few counters, thus no sighting pays
+ * for halving whole sketch. Without decay, sketch would
+ * fill up with single use keys (ids, ...) and sooner or later every key
+ * would be promoted on its first sighting. Sketch may still overestimate
+ * counts, so small fraction of rare keys is promoted. <br>
+ *
+ * Closing scope only drops reference to its trie, so scope is released
+ * in O(1) and all non promoted values are left to GC.
+ */
+public class ScopedInternTrie<T> {
+
+    /** Shared intern to which recurring values are promoted */
+    @Getter final Interner<T> global;
+
+    /** Number of scopes which have to miss a key before it is promoted */
+    @Getter final int promoteAfter;
+
+    final SightingSketch sightings;
+
+
+    public ScopedInternTrie() {
+        this(new InternTrie<>(), 2);
+    }
+
+
+    /**
+     * @param global       shared intern to which recurring values are promoted
+     * @param promoteAfter number of scopes which have to miss a key before
+     *                     it is promoted; 1 promotes every key immediately
+     */
+    public ScopedInternTrie(Interner<T> global, int promoteAfter) {
+        if (global == null)
+            throw new IllegalArgumentException("global intern is null");
+        if (promoteAfter < 1)
+            throw new IllegalArgumentException("promoteAfter must be >= 1 and now is: " + promoteAfter);
+
+        this.global = global;
+        this.promoteAfter = promoteAfter;
+        this.sightings = promoteAfter > 1 ? new SightingSketch(1 << 16) : null;
+    }
+
+
+    /**
+     * Opens new scope. Scope must be used by single thread
+     * and should be closed as soon as job is done.
+     */
+    public Scope<T> openScope() {
+        return new Scope<>(this);
+    }
+
+
+    /** Resolve value missed by a scope, promoting it if it is recurring */
+    T resolve(byte[] objData, int off, int len, UnmarshallerWithOffset<T> unmarshaller) {
+        T value = global.get(objData, off, len);
+        if (value != null) {
+            return value;
+        }
+
+        value = unmarshaller.unmarshall(objData, off, len);
+        if (value == null) {
+            return null;
+        }
+
+        if (sightings == null || sightings.record(objData, off, len) >= promoteAfter) {
+            final T promoted = value;
+            value = global.intern(objData, off, len, (data, o, l) -> promoted);
+        }
+
+        return value;
+    }
+
+
+
+    /**
+     * Thread confined intern trie. Instance is not thread safe, and
+     * is meant to live only as long as a single deserialization job.
+     */
+    public static class Scope<T> implements Interner<T>, AutoCloseable {
+
+        final ScopedInternTrie<T> owner;
+
+        LocalNode<T> root = new LocalNode<>();
+
+        Scope(ScopedInternTrie<T> owner) {
+            this.owner = owner;
+        }
+
+
+        /**
+         * Interns an object based on its byte array representation.
+         *
+         * @param objData      The byte array representation of the object.
+         * @param off          The starting offset in the byte array.
+         * @param len          The length of the byte array to use.
+         * @param unmarshaller The unmarshaller to convert byte array to object.
+         * @return The interned object.
+         * @throws IllegalStateException if scope is closed
+         */
+        @Override
+        public T intern(byte[] objData, int off, int len, UnmarshallerWithOffset<T> unmarshaller) {
+            LocalNode<T> current = root;
+            if (current == null)
+                throw new IllegalStateException("scope is closed");
+
+            int endIdx = off + len;
+            for (int idx = off; idx < endIdx; idx += 8) {
+                int keyLen = Math.min(endIdx - idx, 8);
+                long nodeKey = BitsAndBytes.bytes2long(objData, idx, keyLen);
+                if (keyLen < 8) {
+                    return current.childValue(LocalNode.valueKey(nodeKey, keyLen), owner, unmarshaller, objData, off, len);
+                }
+
+                current = current.childNode(nodeKey);
+            }
+
+            return current.getValue(owner, unmarshaller, objData, off, len);
+        }
+
+
+        /**
+         * Returns object previously interned in this scope.
+         * Unlike intern, this method never creates trie nodes,
+         * nor looks into global trie.
+         *
+         * @return The interned object, or null if data was not interned in this scope.
+         * @throws IllegalStateException if scope is closed
+         */
+        @Override
+        public T get(byte[] objData, int off, int len) {
+            LocalNode<T> current = root;
+            if (current == null)
+                throw new IllegalStateException("scope is closed");
+
+            int endIdx = off + len;
+            for (int idx = off; idx < endIdx; idx += 8) {
+                int keyLen = Math.min(endIdx - idx, 8);
+                long nodeKey = BitsAndBytes.bytes2long(objData, idx, keyLen);
+                if (keyLen < 8) {
+                    return current.values != null ? current.values.get(LocalNode.valueKey(nodeKey, keyLen)) : null;
+                }
+
+                current = current.nodes != null ? current.nodes.get(nodeKey) : null;
+                if (current == null) return null;
+            }
+
+            return current.value;
+        }
+
+
+        /** Releases all values held by this scope. */
+        @Override
+        public void close() {
+            root = null;
+        }
+    }
+
+
+
+    /**
+     * Scope trie node. Child nodes and values are kept in separate maps,
+     * as nodes are accessed only by the thread owning the scope.
+     */
+    static class LocalNode<T> {
+
+        /**
+         * Key of value, ending with chunk of 1-7 bytes. Chunk length is kept
+         * in highest byte, thus keys differing only in leading zero bytes
+         * don't collide.
+         */
+        static long valueKey(long nodeKey, int keyLen) {
+            return nodeKey | (long) keyLen << 56;
+        }
+
+        LongObjectHashMap<LocalNode<T>> nodes;
+        LongObjectHashMap<T> values;
+        T value;
+
+        LocalNode<T> childNode(long nodeKey) {
+            if (nodes == null) {
+                nodes = new LongObjectHashMap<>();
+            }
+
+            LocalNode<T> child = nodes.get(nodeKey);
+            if (child == null) {
+                child = new LocalNode<>();
+                nodes.put(nodeKey, child);
+            }
+            return child;
+        }
+
+        T childValue(long nodeKey, ScopedInternTrie<T> owner, UnmarshallerWithOffset<T> unmarshaller, byte[] key, int off, int len) {
+            if (values != null) {
+                T val = values.get(nodeKey);
+                if (val != null) return val;
+            }
+            else {
+                values = new LongObjectHashMap<>();
+            }
+
+            T val = owner.resolve(key, off, len, unmarshaller);
+            if (val != null) values.put(nodeKey, val);
+            return val;
+        }
+
+        T getValue(ScopedInternTrie<T> owner, UnmarshallerWithOffset<T> unmarshaller, byte[] key, int off, int len) {
+            if (value != null) {
+                return value;
+            }
+
+            if (len == 0) {
+                return null;
+            }
+
+            value = owner.resolve(key, off, len, unmarshaller);
+            return value;
+        }
+    }
+
+
+
+    /**
+     * Count-min sketch counting in how many scopes a key was missed.
+     * Each key is counted in two cells and the smaller count is estimate.
+     * Every size/16 sightings all counters are halved, thus cells hit by
+     * single sighting are zeroed, while counts of recurring keys survive.
+     * Counting two cells per sighting, at most eighth of cells are hit
+     * between two halvings, which keeps rate of false promotions near 1%.
+     */
+    static class SightingSketch {
+
+        /** Counters halved by each sighting, thus each counter is halved once per size / AGE_STRIDE sightings */
+        static final int AGE_STRIDE = 16;
+
+        final AtomicIntegerArray counters;
+        final int mask;
+        final AtomicInteger recorded = new AtomicInteger();
+
+        SightingSketch(int size) {
+            if (Integer.bitCount(size) != 1 || size < AGE_STRIDE)
+                throw new IllegalArgumentException("size must be power of two >= " + AGE_STRIDE + " and now is: " + size);
+
+            this.counters = new AtomicIntegerArray(size);
+            this.mask = size - 1;
+        }
+
+        /** Counts one more sighting of key and returns estimated sighting count */
+        int record(byte[] objData, int off, int len) {
+            int h = BitsAndBytes.hash(objData, off, len);
+            int idx1 = h & mask;
+            int idx2 = (h * 0x9E3779B9 >>> 16 ^ h >>> 16) & mask;
+
+            age(recorded.getAndIncrement() * AGE_STRIDE & mask);
+
+            int c1 = counters.incrementAndGet(idx1);
+            if (idx1 == idx2) return c1;
+
+            int c2 = counters.incrementAndGet(idx2);
+            return Math.min(c1, c2);
+        }
+
+        /**
+         * Halves AGE_STRIDE counters starting at from. Counters are halved
+         * with plain read and ordered write, as counts are estimates anyway,
+         * thus sighting recorded meanwhile may be lost.
+         */
+        void age(int from) {
+            for (int idx = from; idx < from + AGE_STRIDE; idx++) {
+                counters.lazySet(idx, counters.get(idx) >>> 1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,57 @@
+package mt.fireworks.pauseless;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
+
+import mt.fireworks.pauseless.InternTrie.TrieNode;
+
+/**
+ * Publication of {@link TrieNode} value and children map, and locking of node. <br>
+ *
+ * This is Java 8 implementation, using field updaters and plain write lock. Java 17
+ * build of this class, found in <code>src/main/java17</code> and packaged as
+ * multi-release jar entry, uses VarHandles with acquire reads, and spins
+ * shortly before parking on lock, as lock is held only for a few map operations.
+ */
+final class TrieNodeAccess {
+
+    static final AtomicReferenceFieldUpdater<TrieNode, Object> VALUE =
+            AtomicReferenceFieldUpdater.newUpdater(TrieNode.class, Object.class, "value");
+
+    static final AtomicReferenceFieldUpdater<TrieNode, MutableLongObjectMap> CHILDREN =
+            AtomicReferenceFieldUpdater.newUpdater(TrieNode.class, MutableLongObjectMap.class, "children");
+
+
+    private TrieNodeAccess() {}
+
+
+    static <T> T value(TrieNode<T> node) {
+        return node.value;
+    }
+
+
+    /** Publishes value of node, if it has none yet */
+    static <T> boolean casValue(TrieNode<T> node, T value) {
+        return VALUE.compareAndSet(node, null, value);
+    }
+
+
+    static <T> MutableLongObjectMap<AtomicReference<Object>> children(TrieNode<T> node) {
+        return node.children;
+    }
+
+
+    /** Publishes children map of node, if it has none yet */
+    static <T> boolean casChildren(TrieNode<T> node, MutableLongObjectMap<AtomicReference<Object>> children) {
+        return CHILDREN.compareAndSet(node, null, children);
+    }
+
+
+    /** Acquires node write lock and returns its stamp, to be released by caller */
+    static long lock(TrieNode<?> node) {
+        return node.lock.writeLock();
+    }
+
+}
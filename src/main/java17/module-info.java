@@ -0,0 +1,7 @@
+module mt.fireworks.pauseless {
+    requires org.eclipse.collections.api;
+    requires org.eclipse.collections.impl;
+    requires static lombok;
+
+    exports mt.fireworks.pauseless;
+}
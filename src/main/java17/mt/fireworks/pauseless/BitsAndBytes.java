@@ -0,0 +1,88 @@
+package mt.fireworks.pauseless;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Java 17 implementation of byte utilities. Full 8 byte chunks are read
+ * with single big endian long access instead of byte by byte, and regions
+ * are compared with vectorized {@link Arrays#equals(byte[], int, int, byte[], int, int)}.
+ * Results are equal to Java 8 implementation.
+ */
+public class BitsAndBytes {
+
+    static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+
+    public static long bytes2long(byte[] bytes, int offset, int len) {
+        if (len > 8)
+            throw new IllegalArgumentException("len must be <= 8 and now is: " + len);
+
+        if (offset >= bytes.length)
+            throw new IllegalArgumentException("offset beyond byte array length");
+
+        if (len == 8 && offset + 8 <= bytes.length) {
+            return (long) LONG_BE.get(bytes, offset);
+        }
+
+        final int endIdx = Math.min(offset + len, bytes.length);
+        long val = 0;
+        for (int idx = offset; idx < endIdx; idx++) {
+            byte b = bytes[idx];
+            val = (val << 8) | (0xFFl & b);
+        }
+        return val;
+    }
+
+
+    /** Reverse of bytes2long, writes len lowest bytes of val into bytes */
+    public static void long2bytes(long val, int len, byte[] bytes, int offset) {
+        if (len > 8)
+            throw new IllegalArgumentException("len must be <= 8 and now is: " + len);
+
+        if (len == 8) {
+            LONG_BE.set(bytes, offset, val);
+            return;
+        }
+
+        for (int idx = offset + len - 1; idx >= offset; idx--) {
+            bytes[idx] = (byte) val;
+            val >>>= 8;
+        }
+    }
+
+
+    /**
+     * 32 bit hash of byte array region. Data is consumed in the same
+     * 8 byte chunks as InternTrie keys and finalized with murmur3 mixer.
+     */
+    public static int hash(byte[] bytes, int offset, int len) {
+        long h = 0x9E3779B97F4A7C15l ^ len;
+        final int endIdx = offset + len;
+        int idx = offset;
+        for (; idx + 8 <= endIdx; idx += 8) {
+            long chunk = (long) LONG_BE.get(bytes, idx);
+            h = (h ^ chunk) * 0xBF58476D1CE4E5B9l;
+            h ^= h >>> 31;
+        }
+        if (idx < endIdx) {
+            long chunk = bytes2long(bytes, idx, endIdx - idx);
+            h = (h ^ chunk) * 0xBF58476D1CE4E5B9l;
+            h ^= h >>> 31;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDl;
+        h ^= h >>> 33;
+        return (int) (h ^ (h >>> 32));
+    }
+
+
+    /** Compares two byte array regions of the same length */
+    public static boolean equals(byte[] a, int aOffset, byte[] b, int bOffset, int len) {
+        return Arrays.equals(a, aOffset, aOffset + len, b, bOffset, bOffset + len);
+    }
+
+}
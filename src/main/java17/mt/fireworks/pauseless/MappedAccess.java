@@ -0,0 +1,45 @@
+package mt.fireworks.pauseless;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Ordered access to memory mapped {@link MappedInternDictionary} file. <br>
+ *
+ * Java 17 implementation. Index slots and key count are accessed through
+ * big endian buffer view VarHandles, with release store and acquire load,
+ * thus reader which sees a slot sees key written before it. Buffer byte
+ * order is big endian too, thus plain and ordered accesses see equal values.
+ * Accessed positions are aligned, as mapping starts at page boundary.
+ */
+final class MappedAccess {
+
+    static final VarHandle LONG_BE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    static final VarHandle INT_BE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+
+    private MappedAccess() {}
+
+
+    static long getLongAcquire(ByteBuffer buf, int pos) {
+        return (long) LONG_BE.getAcquire(buf, pos);
+    }
+
+
+    static void putLongRelease(ByteBuffer buf, int pos, long value) {
+        LONG_BE.setRelease(buf, pos, value);
+    }
+
+
+    static int getIntAcquire(ByteBuffer buf, int pos) {
+        return (int) INT_BE.getAcquire(buf, pos);
+    }
+
+
+    static void putIntRelease(ByteBuffer buf, int pos, int value) {
+        INT_BE.setRelease(buf, pos, value);
+    }
+
+}
@@ -0,0 +1,79 @@
+package mt.fireworks.pauseless;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+
+import org.eclipse.collections.api.map.primitive.MutableLongObjectMap;
+
+import mt.fireworks.pauseless.InternTrie.TrieNode;
+
+/**
+ * Publication of {@link TrieNode} value and children map, and locking of node. <br>
+ *
+ * Java 17 implementation. Value and children map are published with CAS and
+ * read with acquire semantics, without full volatile fence on weakly ordered
+ * CPUs. Acquire read is enough to see value, and children map as it was
+ * created, but not later modifications of map, thus entries are read
+ * validated by node lock stamp, see {@link TrieNode}. Write lock is held only
+ * for a few map operations, thus contended thread spins shortly with
+ * {@link Thread#onSpinWait()} before parking. Lock is never a monitor, thus
+ * virtual threads are not pinned while holding it.
+ */
+final class TrieNodeAccess {
+
+    static final int SPINS = 64;
+
+    static final VarHandle VALUE;
+    static final VarHandle CHILDREN;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            VALUE = lookup.findVarHandle(TrieNode.class, "value", Object.class);
+            CHILDREN = lookup.findVarHandle(TrieNode.class, "children", MutableLongObjectMap.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+
+    private TrieNodeAccess() {}
+
+
+    static <T> T value(TrieNode<T> node) {
+        return (T) VALUE.getAcquire(node);
+    }
+
+
+    /** Publishes value of node, if it has none yet */
+    static <T> boolean casValue(TrieNode<T> node, T value) {
+        return VALUE.compareAndSet(node, (Object) null, (Object) value);
+    }
+
+
+    static <T> MutableLongObjectMap<AtomicReference<Object>> children(TrieNode<T> node) {
+        return (MutableLongObjectMap<AtomicReference<Object>>) CHILDREN.getAcquire(node);
+    }
+
+
+    /** Publishes children map of node, if it has none yet */
+    static <T> boolean casChildren(TrieNode<T> node, MutableLongObjectMap<AtomicReference<Object>> children) {
+        return CHILDREN.compareAndSet(node, (MutableLongObjectMap) null, (MutableLongObjectMap) children);
+    }
+
+
+    /** Acquires node write lock and returns its stamp, to be released by caller */
+    static long lock(TrieNode<?> node) {
+        StampedLock lock = node.lock;
+        for (int spin = 0; spin < SPINS; spin++) {
+            long stamp = lock.tryWriteLock();
+            if (stamp != 0) return stamp;
+            Thread.onSpinWait();
+        }
+        return lock.writeLock();
+    }
+
+}
@@ -0,0 +1,90 @@
+package mt.fireworks.pauseless;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Test;
+
+/**
+ * Compares BitsAndBytes with byte by byte reference implementation.
+ * Test runs both against Java 8 and Java 17 classes, see surefire
+ * executions in pom.xml.
+ */
+public class BitsAndBytesTest {
+
+    static long referenceBytes2long(byte[] bytes, int offset, int len) {
+        long val = 0;
+        for (int idx = offset; idx < Math.min(offset + len, bytes.length); idx++) {
+            val = (val << 8) | (bytes[idx] & 0xFF);
+        }
+        return val;
+    }
+
+
+    @Test
+    public void bytes2long() {
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        byte[] bytes = new byte[64];
+        for (int round = 0; round < 1000; round++) {
+            rng.nextBytes(bytes);
+            int offset = rng.nextInt(bytes.length);
+            int len = rng.nextInt(9);
+            long val = BitsAndBytes.bytes2long(bytes, offset, len);
+            assertEquals(referenceBytes2long(bytes, offset, len), val);
+
+            if (offset + len <= bytes.length) {
+                byte[] copy = new byte[bytes.length];
+                BitsAndBytes.long2bytes(val, len, copy, offset);
+                for (int idx = offset; idx < offset + len; idx++) {
+                    assertEquals(bytes[idx], copy[idx]);
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void bytes2longAtArrayEnd() {
+        byte[] bytes = { 1, 2, 3, 4, 5, 6, 7, 8, 9 };
+        assertEquals(0x0203040506070809l, BitsAndBytes.bytes2long(bytes, 1, 8));
+        assertEquals(0x030405060708l, BitsAndBytes.bytes2long(bytes, 2, 6));
+        assertEquals(0x0809l, BitsAndBytes.bytes2long(bytes, 7, 8));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bytes2longTooLong() {
+        BitsAndBytes.bytes2long(new byte[16], 0, 9);
+    }
+
+
+    @Test
+    public void hashAndEquals() {
+        byte[] a = "__some key of 21 bytes__".getBytes();
+        byte[] b = "some key of 21 bytes".getBytes();
+        assertEquals(BitsAndBytes.hash(a, 2, 20), BitsAndBytes.hash(b, 0, 20));
+        assertNotEquals(BitsAndBytes.hash(a, 2, 20), BitsAndBytes.hash(b, 0, 19));
+        assertTrue(BitsAndBytes.equals(a, 2, b, 0, 20));
+        assertFalse(BitsAndBytes.equals(a, 1, b, 0, 20));
+        assertTrue(BitsAndBytes.equals(a, 0, b, 0, 0));
+
+        // hash must not change between runtimes, as it may be persisted by users
+        assertEquals(hashOf(b, 20), BitsAndBytes.hash(b, 0, 20));
+    }
+
+
+    static int hashOf(byte[] bytes, int len) {
+        long h = 0x9E3779B97F4A7C15l ^ len;
+        for (int idx = 0; idx < len; idx += 8) {
+            long chunk = referenceBytes2long(bytes, idx, Math.min(len - idx, 8));
+            h = (h ^ chunk) * 0xBF58476D1CE4E5B9l;
+            h ^= h >>> 31;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDl;
+        h ^= h >>> 33;
+        return (int) (h ^ (h >>> 32));
+    }
+
+}
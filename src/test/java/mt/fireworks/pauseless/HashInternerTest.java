@@ -0,0 +1,126 @@
+package mt.fireworks.pauseless;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+public class HashInternerTest {
+
+
+    @Test
+    public void offsetTest() {
+        HashInterner<String> it = new HashInterner<String>();
+        String alphabet = "abcdefghijklmnopqrstuvwxyz";
+        byte[] bytes = alphabet.getBytes(US_ASCII);
+
+        for (int i = 0; i < alphabet.length(); i++) {
+            for (int j = i + 1; j <= alphabet.length(); j++) {
+                String subString = alphabet.substring(i, j).intern();
+                String internVal = it.intern(bytes, i, j-i, (data, off, len) -> new String(data, off, len, US_ASCII).intern());
+                assertSame(subString, internVal);
+            }
+        }
+
+        int count = alphabet.length() * (alphabet.length() + 1) / 2;
+        assertEquals(count, it.size());
+    }
+
+
+    @Test
+    public void randomStrings() {
+        HashInterner<String> it = new HashInterner<String>(16);
+        HashMap<String, String> expected = new HashMap<>();
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+
+        for (int idx = 0; idx < 200_000; idx++) {
+            String word = RandomStringUtils.randomAlphanumeric(rng.nextInt(1, 70));
+            byte[] bytes = word.getBytes(US_ASCII);
+            String val = it.intern(bytes, (objData) -> new String(objData, US_ASCII));
+            assertEquals(word, val);
+
+            String canonical = expected.computeIfAbsent(word, w -> val);
+            assertSame(canonical, val);
+            assertSame(val, it.get(bytes, 0, bytes.length));
+        }
+
+        assertEquals(expected.size(), it.size());
+    }
+
+
+    @Test
+    public void keysLongerThanSlabChunk() {
+        HashInterner<String> it = new HashInterner<String>();
+        String word = RandomStringUtils.randomAlphanumeric(KeySlab.CHUNK + 10);
+        byte[] bytes = word.getBytes(US_ASCII);
+
+        String a = it.intern(bytes, (objData) -> new String(objData, US_ASCII));
+        String b = it.intern(word.getBytes(US_ASCII), (objData) -> new String(objData, US_ASCII));
+        assertEquals(word, a);
+        assertSame(a, b);
+    }
+
+
+    @Test
+    public void forEach() {
+        HashInterner<String> it = new HashInterner<String>(16);
+        HashSet<String> words = new HashSet<>();
+        for (int idx = 0; idx < 1000; idx++) {
+            String word = RandomStringUtils.randomAlphanumeric(ThreadLocalRandom.current().nextInt(1, 40));
+            words.add(word);
+            it.intern(word.getBytes(US_ASCII), (objData) -> new String(objData, US_ASCII));
+        }
+
+        HashSet<String> visited = new HashSet<>();
+        it.forEach((key, value) -> {
+            assertEquals(new String(key, US_ASCII), value);
+            visited.add(value);
+        });
+        assertEquals(words, visited);
+    }
+
+
+    @Test
+    public void emptyKey() {
+        HashInterner<String> it = new HashInterner<String>();
+        assertNull(it.intern(new byte[0], (objData) -> ""));
+        assertNull(it.get(new byte[0], 0, 0));
+    }
+
+
+    @Test
+    public void concurrentInterns() throws Exception {
+        final int threadCount = 8;
+        final HashInterner<String> it = new HashInterner<String>(16);
+        final String[] words = new String[50_000];
+        for (int idx = 0; idx < words.length; idx++) {
+            words[idx] = RandomStringUtils.randomAlphanumeric(ThreadLocalRandom.current().nextInt(1, 40));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<String[]>> futures = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            futures.add(executor.submit(() -> {
+                String[] res = new String[words.length];
+                for (int idx = 0; idx < words.length; idx++) {
+                    res[idx] = it.intern(words[idx].getBytes(US_ASCII), (objData) -> new String(objData, US_ASCII));
+                }
+                return res;
+            }));
+        }
+
+        String[] first = futures.get(0).get();
+        for (Future<String[]> future : futures) {
+            String[] res = future.get();
+            for (int idx = 0; idx < words.length; idx++) {
+                assertEquals(words[idx], res[idx]);
+                assertSame(first[idx], res[idx]);
+            }
+        }
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,277 @@
+package mt.fireworks.pauseless;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+
+import lombok.*;
+
+/**
+ * Measures tail latency of deserialization under realistic ingest,
+ * with and without InternTrie, for G1, ZGC and Shenandoah collector. <br>
+ *
+ * Producer thread issues records at fixed rate, and consumer thread
+ * deserializes them into transactions, keeping last transactions alive
+ * as a working set. Latency of each record is measured from the time
+ * record was <b>scheduled</b> to be issued, not from time consumer took
+ * it, thus latency is corrected for coordinated omission: when consumer
+ * stalls, for example on GC pause, all records scheduled in the meantime
+ * account for the stall. <br>
+ *
+ * Each collector and mode runs in a separate JVM. Latency percentiles are
+ * recorded with HdrHistogram and reported next to GC pause totals read from
+ * GC MXBeans. Set <code>-Dingest.jfr=true</code> to record JFR for each run. <br>
+ *
+ * Other settings: <code>-Dingest.rate</code> (records per second),
+ * <code>-Dingest.seconds</code> (measurement time), <code>-Dingest.heap</code>.
+ */
+public class IngestLatencyTest {
+
+    static final String[][] COLLECTORS = {
+        {"G1", "-XX:+UseG1GC"},
+        {"ZGC", "-XX:+UseZGC"},
+        {"Shenandoah", "-XX:+UseShenandoahGC"},
+    };
+
+    static final String[] MODES = {"new", "intern"};
+
+    static final int RATE = Integer.getInteger("ingest.rate", 100_000);
+    static final int SECONDS = Integer.getInteger("ingest.seconds", 20);
+    static final int WARMUP_SECONDS = 5;
+    static final int WORKING_SET = 1_000_000;
+
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && "run".equals(args[0])) {
+            runIngest(args[1]);
+            return;
+        }
+
+        System.out.println("Ingest latency test started.");
+        System.out.println("Rate: " + RATE + " records/sec, measured for: " + SECONDS + " sec");
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+
+        for (String[] collector : COLLECTORS) {
+            for (String mode : MODES) {
+                ArrayList<String> cmd = new ArrayList<>();
+                cmd.add(java);
+                cmd.add("-Xmx" + System.getProperty("ingest.heap", "2g"));
+                cmd.add("-XX:+UnlockExperimentalVMOptions");
+                cmd.add(collector[1]);
+                cmd.add("-Dingest.gc=" + collector[0]);
+                cmd.add("-Dingest.rate=" + RATE);
+                cmd.add("-Dingest.seconds=" + SECONDS);
+                if (Boolean.getBoolean("ingest.jfr")) {
+                    cmd.add("-XX:StartFlightRecording=filename=ingest-" + collector[0] + "-" + mode + ".jfr,settings=profile");
+                }
+                cmd.add("-cp");
+                cmd.add(classpath);
+                cmd.add(IngestLatencyTest.class.getName());
+                cmd.add("run");
+                cmd.add(mode);
+
+                Process process = new ProcessBuilder(cmd).inheritIO().start();
+                int exit = process.waitFor();
+                if (exit != 0) {
+                    System.out.println(String.format("  gc: %-10s, mode: %-6s, failed, collector is probably not supported by this JVM", collector[0], mode));
+                }
+            }
+        }
+
+        System.out.println("Done");
+    }
+
+
+    @SneakyThrows
+    static void runIngest(String mode) {
+        final boolean intern = "intern".equals(mode);
+        final byte[][] records = createRecords(100_000);
+        final Ring ring = new Ring(1 << 16);
+        final Histogram histogram = new Histogram(TimeUnit.SECONDS.toNanos(60), 3);
+        final Transaction[] workingSet = new Transaction[WORKING_SET];
+        final InternTrie<String> trie = new InternTrie<>();
+
+        final long intervalNs = 1_000_000_000l / RATE;
+        final long totalRecords = (long) RATE * (WARMUP_SECONDS + SECONDS);
+        final long warmupRecords = (long) RATE * WARMUP_SECONDS;
+
+        Thread producer = new Thread(() -> {
+            long start = System.nanoTime();
+            for (long idx = 0; idx < totalRecords; idx++) {
+                long intended = start + idx * intervalNs;
+                while (System.nanoTime() < intended);
+                while (!ring.offer(intended, (int) (idx % records.length)));
+            }
+        }, "producer");
+        producer.setDaemon(true);
+        producer.start();
+
+        Map<String, long[]> gcBefore = null;
+        for (long idx = 0; idx < totalRecords; idx++) {
+            long slot;
+            while ((slot = ring.poll()) < 0);
+
+            long intended = ring.times[(int) slot];
+            byte[] record = records[ring.records[(int) slot]];
+            ring.release();
+
+            Transaction tx = Transaction.unmarshall(record, intern ? trie : null);
+            workingSet[(int) (idx % WORKING_SET)] = tx;
+
+            long latency = System.nanoTime() - intended;
+            if (idx == warmupRecords) {
+                histogram.reset();
+                gcBefore = gcTotals();
+            }
+            if (idx >= warmupRecords) {
+                histogram.recordValue(latency);
+            }
+        }
+        Map<String, long[]> gcAfter = gcTotals();
+
+        long pauseCount = 0, pauseMs = 0;
+        StringBuilder beans = new StringBuilder();
+        for (String name : gcAfter.keySet()) {
+            long count = gcAfter.get(name)[0] - gcBefore.get(name)[0];
+            long ms = gcAfter.get(name)[1] - gcBefore.get(name)[1];
+            beans.append(String.format("%n      %-28s count: %6d, time: %6d ms", name, count, ms));
+
+            // ZGC and Shenandoah report concurrent cycles in separate beans
+            if (!name.contains("Cycles") && !name.contains("Concurrent")) {
+                pauseCount += count;
+                pauseMs += ms;
+            }
+        }
+
+        String res =
+                String.format("  gc: %-10s, mode: %-6s", System.getProperty("ingest.gc"), mode)
+                + ", " +
+                String.format("p50: %8.1f us, p99: %8.1f us, p99.9: %8.1f us, max: %9.1f us",
+                        histogram.getValueAtPercentile(50) / 1000d,
+                        histogram.getValueAtPercentile(99) / 1000d,
+                        histogram.getValueAtPercentile(99.9) / 1000d,
+                        histogram.getMaxValue() / 1000d)
+                + ", " +
+                String.format("gc pauses: %5d, pause time: %6d ms", pauseCount, pauseMs)
+                + beans;
+
+        System.out.println(res);
+    }
+
+
+    /** Collection count and time per GC MXBean */
+    static Map<String, long[]> gcTotals() {
+        TreeMap<String, long[]> totals = new TreeMap<>();
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals.put(bean.getName(), new long[] {bean.getCollectionCount(), bean.getCollectionTime()});
+        }
+        return totals;
+    }
+
+
+    /**
+     * Records are length prefixed fields: type, status, currency,
+     * country and merchant. All but merchant have low cardinality.
+     */
+    static byte[][] createRecords(int count) {
+        String[] types = {"authorization", "atm", "pos", "error", "query"};
+        String[] statuses = {"Y", "N", "PENDING", "REVERSED"};
+        String[] currencies = new String[30];
+        String[] countries = new String[200];
+        String[] merchants = new String[10_000];
+        for (int i = 0; i < currencies.length; i++) currencies[i] = RandomStringUtils.randomAlphanumeric(3);
+        for (int i = 0; i < countries.length; i++) countries[i] = RandomStringUtils.randomAlphanumeric(2);
+        for (int i = 0; i < merchants.length; i++) merchants[i] = RandomStringUtils.randomAlphanumeric(ThreadLocalRandom.current().nextInt(12, 30));
+
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        byte[][] records = new byte[count][];
+        for (int idx = 0; idx < count; idx++) {
+            String[] fields = {
+                types[rng.nextInt(types.length)],
+                statuses[rng.nextInt(statuses.length)],
+                currencies[rng.nextInt(currencies.length)],
+                countries[rng.nextInt(countries.length)],
+                merchants[rng.nextInt(merchants.length)],
+            };
+
+            int len = 0;
+            for (String f : fields) len += 1 + f.length();
+            byte[] record = new byte[len];
+            int off = 0;
+            for (String f : fields) {
+                record[off++] = (byte) f.length();
+                byte[] bytes = f.getBytes(US_ASCII);
+                System.arraycopy(bytes, 0, record, off, bytes.length);
+                off += bytes.length;
+            }
+            records[idx] = record;
+        }
+        return records;
+    }
+
+
+    @AllArgsConstructor
+    static class Transaction {
+        final String type, status, currency, country, merchant;
+
+        static Transaction unmarshall(byte[] record, InternTrie<String> trie) {
+            String[] fields = new String[5];
+            int off = 0;
+            for (int idx = 0; idx < fields.length; idx++) {
+                int len = record[off++];
+                fields[idx] = trie != null
+                        ? trie.intern(record, off, len, (data, o, l) -> new String(data, o, l, US_ASCII))
+                        : new String(record, off, len, US_ASCII);
+                off += len;
+            }
+            return new Transaction(fields[0], fields[1], fields[2], fields[3], fields[4]);
+        }
+    }
+
+
+    /** Single producer, single consumer ring of scheduled records */
+    static class Ring {
+        final long[] times;
+        final int[] records;
+        final int mask;
+        final AtomicLong head = new AtomicLong();
+        final AtomicLong tail = new AtomicLong();
+
+        Ring(int size) {
+            times = new long[size];
+            records = new int[size];
+            mask = size - 1;
+        }
+
+        boolean offer(long time, int record) {
+            long t = tail.get();
+            if (t - head.get() > mask) return false;
+            times[(int) (t & mask)] = time;
+            records[(int) (t & mask)] = record;
+            tail.lazySet(t + 1);
+            return true;
+        }
+
+        /** @return slot index of next record, or -1 if ring is empty */
+        long poll() {
+            long h = head.get();
+            if (h == tail.get()) return -1;
+            return h & mask;
+        }
+
+        void release() {
+            head.lazySet(head.get() + 1);
+        }
+    }
+
+}
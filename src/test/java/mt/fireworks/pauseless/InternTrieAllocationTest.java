@@ -0,0 +1,133 @@
+package mt.fireworks.pauseless;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.*;
+
+import mt.fireworks.pauseless.Interner.Unmarshaller;
+import mt.fireworks.pauseless.Interner.UnmarshallerWithOffset;
+
+/**
+ * Enforces that intern hit path does not allocate. <br>
+ *
+ * Allocation is measured with HotSpot {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}
+ * around a loop of hits, after the loop was warmed up and compiled by JIT.
+ * Any allocated byte per operation fails the build.
+ */
+public class InternTrieAllocationTest {
+
+    static final int WARMUP_ROUNDS = 20;
+    static final int OPS_PER_ROUND = 100_000;
+
+    static final Unmarshaller<String> UNMARSHALLER = (data) -> new String(data, US_ASCII);
+    static final UnmarshallerWithOffset<String> UNMARSHALLER_WITH_OFFSET = (data, off, len) -> new String(data, off, len, US_ASCII);
+
+    /** Keys of lengths covering node values, child values and multiple trie levels */
+    final byte[][] keys = {
+        "Y".getBytes(US_ASCII),
+        "true".getBytes(US_ASCII),
+        "example".getBytes(US_ASCII),
+        "authoriz".getBytes(US_ASCII),
+        "authorization".getBytes(US_ASCII),
+        "uninspiring example of usage".getBytes(US_ASCII),
+        "0123456789abcdef0123456789abcdef".getBytes(US_ASCII),
+    };
+
+    /** Sum of results, so JIT can't remove the measured code */
+    long blackhole;
+
+    com.sun.management.ThreadMXBean threadBean;
+
+
+    @Before
+    public void setup() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("JVM can't measure thread allocation", bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue("JVM can't measure thread allocation", threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+
+    @Test
+    public void internTrieHitWithOffset() {
+        InternTrie<String> trie = new InternTrie<>();
+        for (byte[] key : keys) trie.intern(key, UNMARSHALLER_WITH_OFFSET);
+
+        assertZeroAllocation(() -> {
+            for (byte[] key : keys) {
+                blackhole += trie.intern(key, 0, key.length, UNMARSHALLER_WITH_OFFSET).length();
+            }
+        });
+    }
+
+
+    @Test
+    public void internTrieHitWithAdapter() {
+        InternTrie<String> trie = new InternTrie<>();
+        for (byte[] key : keys) trie.intern(key, UNMARSHALLER);
+
+        assertZeroAllocation(() -> {
+            for (byte[] key : keys) {
+                blackhole += trie.intern(key, UNMARSHALLER).length();
+            }
+        });
+    }
+
+
+    @Test
+    public void scopeHit() {
+        ScopedInternTrie<String> interns = new ScopedInternTrie<>();
+        ScopedInternTrie.Scope<String> scope = interns.openScope();
+        for (byte[] key : keys) scope.intern(key, UNMARSHALLER);
+
+        assertZeroAllocation(() -> {
+            for (byte[] key : keys) {
+                blackhole += scope.intern(key, UNMARSHALLER).length();
+                blackhole += scope.intern(key, 0, key.length, UNMARSHALLER_WITH_OFFSET).length();
+            }
+        });
+        scope.close();
+    }
+
+
+    @Test
+    public void hashInternerHit() {
+        HashInterner<String> interner = new HashInterner<>();
+        for (byte[] key : keys) interner.intern(key, UNMARSHALLER);
+
+        assertZeroAllocation(() -> {
+            for (byte[] key : keys) {
+                blackhole += interner.intern(key, UNMARSHALLER).length();
+                blackhole += interner.intern(key, 0, key.length, UNMARSHALLER_WITH_OFFSET).length();
+            }
+        });
+    }
+
+
+
+    void assertZeroAllocation(Runnable hits) {
+        final long threadId = Thread.currentThread().getId();
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (int op = 0; op < OPS_PER_ROUND; op++) hits.run();
+        }
+
+        // cost of measurement itself
+        long calibrationStart = threadBean.getThreadAllocatedBytes(threadId);
+        long calibrationEnd = threadBean.getThreadAllocatedBytes(threadId);
+        long measurementCost = calibrationEnd - calibrationStart;
+
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        for (int op = 0; op < OPS_PER_ROUND; op++) hits.run();
+        long end = threadBean.getThreadAllocatedBytes(threadId);
+
+        long allocated = Math.max(0, end - start - measurementCost);
+        double perOp = (double) allocated / OPS_PER_ROUND;
+        assertTrue("hit path allocated " + allocated + " bytes, " + perOp + " bytes/op", allocated == 0);
+    }
+
+}
@@ -1,12 +1,15 @@
 package mt.fireworks.pauseless;
 
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.*;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
 
 import org.junit.*;
 
@@ -192,4 +195,345 @@ public class InternTrieTest {
         }
     }
 
+
+    @Test(timeout = 10_000)
+    public void slowUnmarshallerDoesNotBlockOtherMisses() throws Exception {
+        final InternTrie<String> it = new InternTrie<String>();
+        final CountDownLatch slowStarted = new CountDownLatch(1);
+        final Semaphore release = new Semaphore(0);
+
+        // both keys are shorter than 8 bytes, thus both are values of root node
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<String> slow = executor.submit(() ->
+            it.intern("slow".getBytes(US_ASCII), (data, off, len) -> {
+                slowStarted.countDown();
+                release.acquireUninterruptibly();
+                return new String(data, off, len, US_ASCII);
+            })
+        );
+
+        slowStarted.await();
+        String fast = it.intern("fast".getBytes(US_ASCII), (data, off, len) -> new String(data, off, len, US_ASCII));
+        assertEquals("fast", fast);
+
+        release.release();
+        assertEquals("slow", slow.get());
+        executor.shutdown();
+    }
+
+
+    @Test
+    public void concurrentMissesReturnSameInstance() throws Exception {
+        final int threadCount = 8;
+        final InternTrie<String> it = new InternTrie<String>();
+        final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        for (int round = 0; round < 100; round++) {
+            byte[] shortKey = ("k" + round).getBytes(US_ASCII);
+            byte[] longKey = ("eight by" + round + "eight by").getBytes(US_ASCII);
+
+            Callable<String[]> task = () -> {
+                barrier.await();
+                String a = it.intern(shortKey, (data) -> new String(data, US_ASCII));
+                String b = it.intern(longKey, 0, 8, (data, off, len) -> new String(data, off, len, US_ASCII));
+                return new String[] {a, b};
+            };
+
+            List<Future<String[]>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) futures.add(executor.submit(task));
+
+            String[] first = futures.get(0).get();
+            for (Future<String[]> future : futures) {
+                String[] res = future.get();
+                assertSame(first[0], res[0]);
+                assertSame(first[1], res[1]);
+            }
+        }
+
+        executor.shutdown();
+    }
+
+
+    @Test(timeout = 120_000)
+    public void concurrentMissesReturnValueOfOwnKey() throws Exception {
+        final int threadCount = 8;
+        final int keyCount = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        for (int round = 0; round < 10; round++) {
+            // 7 byte keys are values of root map, 15 byte keys go through child nodes of root,
+            // thus both maps are resized while other threads read them
+            byte[][] keys = new byte[2 * keyCount][];
+            Random rnd = new Random(round);
+            for (int idx = 0; idx < keys.length; idx++) {
+                keys[idx] = new byte[idx < keyCount ? 7 : 15];
+                rnd.nextBytes(keys[idx]);
+            }
+
+            final InternTrie<String> it = new InternTrie<String>();
+            final ConcurrentHashMap<String, String> seen = new ConcurrentHashMap<>();
+            final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+
+            Callable<Void> task = () -> {
+                barrier.await();
+                ThreadLocalRandom rng = ThreadLocalRandom.current();
+                for (int n = 0; n < keys.length; n++) {
+                    byte[] key = keys[rng.nextInt(keys.length)];
+                    String expected = new String(key, ISO_8859_1);
+                    String value = it.intern(key, 0, key.length, (data, off, len) -> new String(data, off, len, ISO_8859_1));
+                    assertEquals(expected, value);
+                    assertSame(value, seen.computeIfAbsent(expected, k -> value));
+                    assertSame(value, it.get(key, 0, key.length));
+                }
+                return null;
+            };
+
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) futures.add(executor.submit(task));
+            for (Future<Void> future : futures) future.get();
+
+            for (Map.Entry<String, String> e : seen.entrySet()) {
+                byte[] key = e.getKey().getBytes(ISO_8859_1);
+                assertSame(e.getValue(), it.get(key, 0, key.length));
+            }
+            assertEquals(seen.size(), it.size());
+        }
+
+        executor.shutdown();
+    }
+
+
+    @Test
+    public void statistics() {
+        final InternTrie<String> it = new InternTrie<String>();
+        String[] words = {"Y", "N", "atm", "pos", "authoriz", "authorization", "uninspiring example of usage"};
+        for (String word : words) {
+            it.intern(word.getBytes(US_ASCII), (data) -> new String(data, US_ASCII));
+            it.intern(word.getBytes(US_ASCII), (data) -> new String(data, US_ASCII));
+        }
+
+        assertEquals(words.length, it.size());
+        // root, "authoriz", "uninspir", "ing exam", "ple of u"
+        assertEquals(5, it.nodeCount());
+        assertEquals("nodes: 5, maps: 5, values: 7", it.toString());
+        assertTrue(it.estimatedRetainedBytes() > 0);
+
+        InternTrieStats stats = it.stats();
+        assertEquals(it.size(), stats.getValues());
+        assertEquals(it.nodeCount(), stats.getNodes());
+        assertArrayEquals(new long[] {1, 2, 1, 1}, stats.getNodesPerLevel());
+        assertArrayEquals(new long[] {4, 2, 0, 1}, stats.getValuesPerLevel());
+        assertArrayEquals(new long[] {6, 1, 1, 1}, stats.getMaxFanOutPerLevel());
+
+        long[] keyLengths = stats.getValuesPerKeyLength();
+        assertEquals(2, keyLengths[1]);
+        assertEquals(2, keyLengths[3]);
+        assertEquals(1, keyLengths[8]);
+        assertEquals(1, keyLengths[13]);
+        assertEquals(1, keyLengths[28]);
+    }
+
+
+    @Test
+    public void statisticsWhileInterning() throws Exception {
+        final InternTrie<String> it = new InternTrie<String>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> writer = executor.submit(() -> {
+            for (int idx = 0; idx < 200_000; idx++) internRandomString(it);
+        });
+
+        while (!writer.isDone()) {
+            InternTrieStats stats = it.stats();
+            assertTrue(stats.getNodes() > 0);
+        }
+        writer.get();
+        executor.shutdown();
+
+        assertEquals(it.size(), it.stats().getValues());
+    }
+
+
+    @Test
+    public void estimatedRetainedBytesAccountsMapGrowth() {
+        final InternTrie<String> it = new InternTrie<String>();
+        long empty = it.estimatedRetainedBytes();
+
+        int keyCount = 1000;
+        for (int idx = 0; idx < keyCount; idx++) {
+            byte[] key = String.format("a%06d", idx).getBytes(US_ASCII);
+            it.intern(key, (data) -> "value");
+        }
+
+        // all keys are values of root map, which table grows from 16 to 2048 slots
+        long expected = empty + InternTrie.MAP_BYTES + (2048 - InternTrie.MAP_SLOTS) * InternTrie.SLOT_BYTES
+                + keyCount * InternTrie.VALUE_BYTES;
+        assertEquals(expected, it.estimatedRetainedBytes());
+    }
+
+
+    @Test
+    public void iteration() {
+        final InternTrie<String> it = new InternTrie<String>();
+        HashMap<String, String> expected = new HashMap<>();
+        ThreadLocalRandom rng = ThreadLocalRandom.current();
+        for (int idx = 0; idx < 50_000; idx++) {
+            String word = RandomStringUtils.randomAlphanumeric(rng.nextInt(1, 40));
+            expected.put(word, it.intern(word.getBytes(US_ASCII), (data) -> new String(data, US_ASCII)));
+        }
+
+        HashMap<String, String> visited = new HashMap<>();
+        it.forEach((key, value) -> {
+            assertNull(visited.put(new String(key, US_ASCII), value));
+        });
+        assertEquals(expected, visited);
+
+        Map<String, String> parallel = it.parallelStream()
+            .collect(Collectors.toConcurrentMap(e -> new String(e.getKey(), US_ASCII), e -> e.getValue()));
+        assertEquals(expected, parallel);
+
+        for (String prefix : new String[] {"", "a", "ab", "abcdefgh", "abcdefghi", "A1b2C3d4e"}) {
+            HashMap<String, String> scanned = new HashMap<>();
+            it.intern((prefix + "xyz").getBytes(US_ASCII), (data) -> new String(data, US_ASCII));
+            it.forEach(prefix.getBytes(US_ASCII), (key, value) -> scanned.put(new String(key, US_ASCII), value));
+
+            HashMap<String, String> matching = new HashMap<>();
+            it.forEach((key, value) -> {
+                String k = new String(key, US_ASCII);
+                if (k.startsWith(prefix)) matching.put(k, value);
+            });
+            assertEquals(matching, scanned);
+            assertTrue(scanned.containsKey(prefix + "xyz"));
+        }
+    }
+
+
+    @Test
+    public void spliteratorSplitsAtChildMaps() {
+        final InternTrie<String> it = new InternTrie<String>();
+        for (int idx = 0; idx < 10_000; idx++) {
+            String word = "prefix__" + idx + "_" + RandomStringUtils.randomAlphanumeric(10);
+            it.intern(word.getBytes(US_ASCII), (data) -> new String(data, US_ASCII));
+        }
+
+        Spliterator<Map.Entry<byte[], String>> first = it.spliterator();
+        Spliterator<Map.Entry<byte[], String>> second = first.trySplit();
+        assertNotNull(second);
+
+        long[] counts = new long[2];
+        first.forEachRemaining(e -> counts[0]++);
+        second.forEachRemaining(e -> counts[1]++);
+        assertTrue(counts[0] > 0);
+        assertTrue(counts[1] > 0);
+        assertEquals(it.size(), counts[0] + counts[1]);
+    }
+
+
+
+    @Test
+    public void binaryKeysWithLeadingZeros() {
+        InternTrie<String> it = new InternTrie<String>();
+        byte[][] keys = {
+            { 'a' },
+            { 0, 'a' },
+            { 0, 0, 'a' },
+            { 1, 2, 3, 4, 5, 6, 7 },
+            { 0, 1, 2, 3, 4, 5, 6, 7 },
+            { 0, 1, 2, 3, 4, 5, 6, 7, 'a' },
+            { 0, 1, 2, 3, 4, 5, 6, 7, 0, 'a' },
+            { 0 },
+            { 0, 0 },
+        };
+
+        String[] interned = new String[keys.length];
+        for (int idx = 0; idx < keys.length; idx++) {
+            interned[idx] = it.intern(keys[idx], (data) -> Arrays.toString(data));
+            assertEquals(Arrays.toString(keys[idx]), interned[idx]);
+        }
+
+        for (int idx = 0; idx < keys.length; idx++) {
+            byte[] key = keys[idx].clone();
+            assertSame(interned[idx], it.intern(key, (data) -> Arrays.toString(data)));
+            assertSame(interned[idx], it.get(key, 0, key.length));
+        }
+
+        assertEquals(keys.length, it.size());
+        assertTrue(it.collisionCount() > 0);
+
+        // colliding keys are iterated and counted as any other key
+        HashMap<String, String> visited = new HashMap<>();
+        it.forEach((key, value) -> visited.put(Arrays.toString(key), value));
+        assertEquals(keys.length, visited.size());
+        for (int idx = 0; idx < keys.length; idx++) {
+            assertSame(interned[idx], visited.get(Arrays.toString(keys[idx])));
+        }
+
+        long withZeroPrefix = Arrays.stream(keys).filter(k -> k[0] == 0).count();
+        assertEquals(withZeroPrefix, it.stream().filter(e -> e.getKey()[0] == 0).count());
+        long[] prefixed = new long[1];
+        it.forEach(new byte[] { 0 }, (key, value) -> prefixed[0]++);
+        assertEquals(withZeroPrefix, prefixed[0]);
+
+        InternTrieStats stats = it.stats();
+        assertEquals(keys.length, stats.getValues());
+        assertEquals(it.collisionCount(), stats.getCollisions());
+    }
+
+
+    @Test(timeout = 60_000)
+    public void concurrentBinaryKeysWithLeadingZeros() throws Exception {
+        final int threadCount = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        for (int round = 0; round < 10; round++) {
+            // keys of few distinct bytes, thus many of them collide in trie
+            byte[][] keys = new byte[5_000][];
+            Random rnd = new Random(round);
+            for (int idx = 0; idx < keys.length; idx++) {
+                keys[idx] = new byte[1 + rnd.nextInt(12)];
+                for (int b = 0; b < keys[idx].length; b++) keys[idx][b] = (byte) rnd.nextInt(3);
+            }
+
+            final InternTrie<String> it = new InternTrie<String>();
+            final ConcurrentHashMap<String, String> seen = new ConcurrentHashMap<>();
+            final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+
+            Callable<Void> task = () -> {
+                barrier.await();
+                ThreadLocalRandom rng = ThreadLocalRandom.current();
+                for (int n = 0; n < keys.length; n++) {
+                    byte[] key = keys[rng.nextInt(keys.length)];
+                    String value = it.intern(key, (data) -> Arrays.toString(data));
+                    assertEquals(Arrays.toString(key), value);
+                    assertSame(value, seen.computeIfAbsent(value, k -> value));
+                }
+                return null;
+            };
+
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) futures.add(executor.submit(task));
+            for (Future<Void> future : futures) future.get();
+
+            assertEquals(seen.size(), it.size());
+            assertTrue(it.collisionCount() > 0);
+        }
+
+        executor.shutdown();
+    }
+
+
+    @Test
+    public void keyViewUnmarshaller() {
+        InternTrie<String> it = new InternTrie<String>();
+        byte[] data = "__key__".getBytes(US_ASCII);
+
+        String a = it.internView(data, 2, 3, key -> key.toString(US_ASCII));
+        String b = it.internView(data, 2, 3, key -> { throw new AssertionError("unmarshalled on hit"); });
+        assertEquals("key", a);
+        assertSame(a, b);
+
+        // constructor reference with several arities must stay unambiguous
+        assertSame(a, it.intern(data, 2, 3, String::new));
+    }
+
 }
@@ -0,0 +1,92 @@
+package mt.fireworks.pauseless;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+import mt.fireworks.pauseless.Interner.UnmarshallerWithOffset;
+
+/**
+ * Compares {@link Interner} implementations on interning (mostly hits)
+ * of keys within different length ranges, so implementation can be
+ * chosen per field.
+ */
+public class InternerBench {
+
+    static final UnmarshallerWithOffset<String> UNMARSHALLER = (data, off, len) -> new String(data, off, len, US_ASCII);
+
+    @State(Scope.Benchmark)
+    public static class InternerState {
+
+        @Param({"trie", "hash"})
+        String impl;
+
+        /** Range of key lengths, as "min-max" */
+        @Param({"1-12", "12-32", "32-64"})
+        String keyLen;
+
+        Interner<String> interner;
+        byte[] data;
+        int[] offsets;
+        int[] lens;
+        int idx;
+
+        @Setup
+        public void setup() {
+            interner = "trie".equals(impl) ? new InternTrie<>() : new HashInterner<>();
+
+            String[] range = keyLen.split("-");
+            int minLen = Integer.parseInt(range[0]);
+            int maxLen = Integer.parseInt(range[1]);
+
+            ThreadLocalRandom rng = ThreadLocalRandom.current();
+            int uniqueKeys = 10_000;
+            offsets = new int[uniqueKeys];
+            lens = new int[uniqueKeys];
+            data = new byte[uniqueKeys * maxLen];
+
+            int off = 0;
+            for (int i = 0; i < uniqueKeys; i++) {
+                byte[] key = RandomStringUtils.randomAlphanumeric(rng.nextInt(minLen, maxLen + 1)).getBytes(US_ASCII);
+                System.arraycopy(key, 0, data, off, key.length);
+                offsets[i] = off;
+                lens[i] = key.length;
+                off += key.length;
+            }
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include("mt\\.fireworks\\.pauseless\\.InternerBench\\..*")
+                .forks(1)
+                .warmupIterations(1)
+                .warmupTime(TimeValue.seconds(3))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(3))
+                .jvmArgsAppend("-Xmx1g", "-XX:+UseG1GC")
+                .timeUnit(TimeUnit.MICROSECONDS)
+                .mode(Mode.Throughput)
+                .shouldDoGC(false)
+                .build();
+
+        new Runner(opt).run();
+    }
+
+
+    @Benchmark
+    public long intern(InternerState state) {
+        int idx = state.idx;
+        if (++state.idx == state.offsets.length) state.idx = 0;
+
+        String str = state.interner.intern(state.data, state.offsets[idx], state.lens[idx], UNMARSHALLER);
+        return str.length();
+    }
+
+}
@@ -33,10 +33,10 @@ public class JMHBench {
         int dataIdx = 0;
         InternTrie<String> trie;
 
-        @Setup
+        @Setup(Level.Trial)
         public void setup() throws IOException {
             trie = new InternTrie<>();
-            path = System.getProperty("java.io.tmpdir") + JMHBench.filename;
+            path = setupBechmarkData(10_000, 100, 1, 12);
             File f = new File(path);
             @Cleanup FileInputStream fis = new FileInputStream(f);
             byte[] d = new byte[(int) f.length()];
@@ -159,10 +159,13 @@ public class JMHBench {
             int maxStringLen
     ) throws IOException {
         String tmpdir = System.getProperty("java.io.tmpdir");
-        File testData = new File(tmpdir + JMHBench.filename);
+        File testData = new File(tmpdir, JMHBench.filename);
+        if (testData.isFile() && testData.length() > 0) {
+            return testData.getPath();
+        }
 
-        // Uncomment to create test data:
-        /*
+        // data is written aside and renamed, thus concurrent forks never read partial file
+        File partial = File.createTempFile(JMHBench.filename, ".tmp", new File(tmpdir));
         ThreadLocalRandom rng = ThreadLocalRandom.current();
 
         String[] randomStrings = new String[numberOfUniqueStrings];
@@ -171,15 +174,20 @@ public class JMHBench {
             randomStrings[i] = RandomStringUtils.randomAlphanumeric(len);
         }
 
-        FileWriter fw = new FileWriter(testData, false);
-        @Cleanup BufferedWriter bw = new BufferedWriter(fw);
-        for (int i = 0; i < numberOfUniqueStrings * stringReuse; i++) {
-            int strIdx = rng.nextInt(randomStrings.length);
-            String str = randomStrings[strIdx];
-            bw.write(str);
-            bw.write('\n');
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(partial, false))) {
+            for (int i = 0; i < numberOfUniqueStrings * stringReuse; i++) {
+                int strIdx = rng.nextInt(randomStrings.length);
+                String str = randomStrings[strIdx];
+                bw.write(str);
+                bw.write('\n');
+            }
+        }
+
+        if (!partial.renameTo(testData) && !testData.isFile()) {
+            partial.delete();
+            throw new IOException("Can't create test data at: '" + testData + "'");
         }
-        //*/
+        partial.delete();
 
         String path = testData.getPath();
         return path;
@@ -0,0 +1,91 @@
+package mt.fireworks.pauseless;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.*;
+
+import lombok.Cleanup;
+
+/**
+ * Runs {@link JMHBench} benchmarks in {@link Mode#SampleTime} mode, thus
+ * reporting latency percentiles (p0.99, p0.999...) instead of mean throughput.
+ * Suite is run once for each of G1, ZGC and Shenandoah collector, with JMH
+ * GC profiler reporting GC count and time next to the percentiles. <br>
+ *
+ * JMH samples latency of back to back invocations, thus results suffer
+ * from coordinated omission. See {@link IngestLatencyTest} for latency
+ * measured against fixed request rate. <br>
+ *
+ * Collectors not supported by current JVM are skipped. Any other failure,
+ * like missing test data or error within benchmark, stops the run.
+ */
+public class JMHLatencyBench {
+
+    static final String[][] COLLECTORS = {
+        {"G1", "-XX:+UseG1GC"},
+        {"ZGC", "-XX:+UseZGC"},
+        {"Shenandoah", "-XX:+UseShenandoahGC"},
+    };
+
+
+    public static void main(String[] args) throws Exception {
+        String path = JMHBench.setupBechmarkData(10_000, 100, 1, 12);
+        long len = new File(path).length();
+        if (len == 0) {
+            throw new IllegalStateException("Test data missing at: '" + path + "'");
+        }
+        System.out.println("Testa data prepared at: '" + path + "' (" + len + " bytes)");
+
+        for (String[] collector : COLLECTORS) {
+            if (!isSupported(collector[1])) {
+                System.out.println("Skipping " + collector[0] + ", collector is not supported by this JVM");
+                continue;
+            }
+            System.out.println("Running latency benchmark with " + collector[0]);
+
+            Options opt = new OptionsBuilder()
+                    .include("mt\\.fireworks\\.pauseless\\.JMHBench\\..*")
+                    .forks(1)
+                    .warmupIterations(1)
+                    .warmupTime(TimeValue.seconds(3))
+                    .measurementIterations(5)
+                    .measurementTime(TimeValue.seconds(3))
+                    .jvmArgsAppend(
+                            "-Xmx1g"
+                            , "-XX:+UnlockExperimentalVMOptions"
+                            , collector[1]
+                    )
+                    .addProfiler(GCProfiler.class)
+                    .timeUnit(TimeUnit.NANOSECONDS)
+                    .mode(Mode.SampleTime)
+                    .shouldDoGC(false)
+                    .shouldFailOnError(true)
+                    .build();
+
+            Collection<RunResult> results = new Runner(opt).run();
+            if (results.isEmpty()) {
+                throw new IllegalStateException(collector[0] + " run produced no results");
+            }
+        }
+    }
+
+
+    /** True if JVM running this benchmark starts with given collector flag */
+    static boolean isSupported(String collectorFlag) throws Exception {
+        String javaBin = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(javaBin, "-XX:+UnlockExperimentalVMOptions", collectorFlag, "-version")
+                .redirectErrorStream(true)
+                .start();
+        @Cleanup InputStream output = process.getInputStream();
+        while (output.read() >= 0);
+        return process.waitFor() == 0;
+    }
+
+}
@@ -0,0 +1,56 @@
+package mt.fireworks.pauseless;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.Test;
+
+public class KeyViewTest {
+
+    final byte[] data = "__key__".getBytes(US_ASCII);
+    final KeyView view = new KeyView(data, 2, 3);
+
+
+    @Test
+    public void readsOnlyKeyBytes() {
+        assertEquals(3, view.getLength());
+        assertEquals('k', view.byteAt(0));
+        assertEquals('y', view.byteAt(2));
+        assertEquals("key", view.toString(US_ASCII));
+        assertArrayEquals("key".getBytes(US_ASCII), view.toByteArray());
+        assertEquals("6b 65 79", view.toString());
+
+        byte[] dest = new byte[5];
+        view.copyTo(dest, 1);
+        assertArrayEquals(new byte[] { 0, 'k', 'e', 'y', 0 }, dest);
+
+        assertTrue(view.contentEquals("akey".getBytes(US_ASCII), 1, 3));
+        assertFalse(view.contentEquals("keys".getBytes(US_ASCII), 0, 4));
+    }
+
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void byteOutsideOfKey() {
+        view.byteAt(3);
+    }
+
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void viewOutsideOfArray() {
+        new KeyView(data, 5, 3);
+    }
+
+
+    @Test(expected = ReadOnlyBufferException.class)
+    public void bufferIsReadOnly() {
+        ByteBuffer buffer = view.asByteBuffer();
+        assertEquals(0, buffer.position());
+        assertEquals(3, buffer.remaining());
+        assertEquals('k', buffer.get(0));
+        buffer.put(0, (byte) 'x');
+    }
+
+}
@@ -0,0 +1,271 @@
+package mt.fireworks.pauseless;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import mt.fireworks.pauseless.Interner.UnmarshallerWithOffset;
+
+import lombok.Cleanup;
+
+public class MappedInternDictionaryTest {
+
+    static final UnmarshallerWithOffset<String> UNMARSHALLER = (data, off, len) -> new String(data, off, len, US_ASCII);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+
+    @Test
+    public void internAndReopen() throws IOException {
+        File file = new File(tmp.getRoot(), "dict");
+        String alphabet = "abcdefghijklmnopqrstuvwxyz";
+        byte[] bytes = alphabet.getBytes(US_ASCII);
+
+        try (MappedInternDictionary<String> dict = MappedInternDictionary.open(file, 1000, 64 * 1024)) {
+            for (int i = 0; i < alphabet.length(); i++) {
+                for (int j = i + 1; j <= alphabet.length(); j++) {
+                    String val = dict.intern(bytes, i, j - i, UNMARSHALLER);
+                    assertEquals(alphabet.substring(i, j), val);
+                    assertSame(val, dict.intern(bytes, i, j - i, UNMARSHALLER));
+                    assertSame(val, dict.get(bytes, i, j - i));
+                }
+            }
+            assertEquals(351, dict.size());
+        }
+
+        // capacity and slab size are read from existing file
+        try (MappedInternDictionary<String> dict = MappedInternDictionary.open(file, 1, 1)) {
+            assertEquals(1000, dict.getCapacity());
+            assertEquals(351, dict.size());
+
+            int id = dict.id(bytes, 3, 5);
+            assertTrue(id >= 0);
+            assertNull("not interned by this instance yet", dict.get(bytes, 3, 5));
+
+            String val = dict.byId(id, UNMARSHALLER);
+            assertEquals("defgh", val);
+            assertSame(val, dict.intern("defgh".getBytes(US_ASCII), UNMARSHALLER));
+            assertEquals(351, dict.size());
+        }
+    }
+
+
+    @Test
+    public void sharedBetweenInstances() throws IOException {
+        File file = new File(tmp.getRoot(), "dict");
+        @Cleanup MappedInternDictionary<String> first = MappedInternDictionary.open(file, 1000, 64 * 1024);
+        @Cleanup MappedInternDictionary<String> second = MappedInternDictionary.open(file, 1000, 64 * 1024);
+
+        for (int idx = 0; idx < 500; idx++) {
+            String word = RandomStringUtils.randomAlphanumeric(1 + idx % 40) + idx;
+            byte[] bytes = word.getBytes(US_ASCII);
+            MappedInternDictionary<String> writer = idx % 2 == 0 ? first : second;
+            MappedInternDictionary<String> reader = idx % 2 == 0 ? second : first;
+
+            assertEquals(word, writer.intern(bytes, UNMARSHALLER));
+            int id = reader.id(bytes, 0, bytes.length);
+            assertEquals(writer.id(bytes, 0, bytes.length), id);
+            assertEquals(word, reader.byId(id, UNMARSHALLER));
+        }
+
+        assertEquals(500, first.size());
+        assertEquals(500, second.size());
+    }
+
+
+    @Test
+    public void concurrentInstancesInOneProcess() throws Exception {
+        File file = new File(tmp.getRoot(), "dict");
+        int keyCount = 20_000;
+        @Cleanup MappedInternDictionary<String> first = MappedInternDictionary.open(file, 2 * keyCount, 1 << 20);
+        @Cleanup MappedInternDictionary<String> second = MappedInternDictionary.open(file, 2 * keyCount, 1 << 20);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> a = executor.submit(() -> internKeys(first, keyCount, 1));
+        Future<?> b = executor.submit(() -> internKeys(second, keyCount, 2));
+        a.get();
+        b.get();
+        executor.shutdown();
+
+        assertEquals(keyCount, first.size());
+        assertEquals(idChecksum(first, keyCount), idChecksum(second, keyCount));
+    }
+
+
+    /**
+     * Child JVMs and this JVM intern the same keys at once, each in its own
+     * order. Every key must be appended once, and get the same id everywhere.
+     */
+    @Test(timeout = 120_000)
+    public void sharedBetweenProcesses() throws Exception {
+        File file = new File(tmp.getRoot(), "dict");
+        File go = new File(tmp.getRoot(), "go");
+        int keyCount = 50_000;
+        int childCount = 3;
+
+        String javaBin = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classpath = System.getProperty("java.class.path");
+        List<Process> children = new ArrayList<>();
+        List<BufferedReader> outputs = new ArrayList<>();
+        for (int child = 0; child < childCount; child++) {
+            Process process = new ProcessBuilder(javaBin, "-cp", classpath, MappedInternDictionaryTest.class.getName(),
+                    file.getPath(), go.getPath(), String.valueOf(keyCount), String.valueOf(child))
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            children.add(process);
+            outputs.add(new BufferedReader(new InputStreamReader(process.getInputStream(), US_ASCII)));
+        }
+
+        // start appending only when all children have opened dictionary
+        for (BufferedReader output : outputs) {
+            assertEquals("ready", output.readLine());
+        }
+        @Cleanup MappedInternDictionary<String> dict = MappedInternDictionary.open(file, 2 * keyCount, 4 << 20);
+        assertTrue(go.createNewFile());
+        internKeys(dict, keyCount, childCount);
+
+        long checksum = idChecksum(dict, keyCount);
+        for (int child = 0; child < childCount; child++) {
+            assertEquals("ids " + checksum, outputs.get(child).readLine());
+            assertEquals(0, children.get(child).waitFor());
+        }
+        assertEquals(keyCount, dict.size());
+    }
+
+
+    /** Entry point of child JVM of sharedBetweenProcesses */
+    public static void main(String[] args) throws Exception {
+        File file = new File(args[0]);
+        File go = new File(args[1]);
+        int keyCount = Integer.parseInt(args[2]);
+        int seed = Integer.parseInt(args[3]);
+
+        try (MappedInternDictionary<String> dict = MappedInternDictionary.open(file, 2 * keyCount, 4 << 20)) {
+            System.out.println("ready");
+            System.out.flush();
+            while (!go.exists()) Thread.sleep(1);
+
+            internKeys(dict, keyCount, seed);
+            System.out.println("ids " + idChecksum(dict, keyCount));
+        }
+    }
+
+
+    static void internKeys(MappedInternDictionary<String> dict, int keyCount, int seed) {
+        List<Integer> order = new ArrayList<>();
+        for (int idx = 0; idx < keyCount; idx++) order.add(idx);
+        Collections.shuffle(order, new Random(seed));
+
+        for (int idx : order) {
+            String key = "key-" + idx;
+            if (!key.equals(dict.intern(key.getBytes(US_ASCII), UNMARSHALLER)))
+                throw new AssertionError("wrong value of " + key);
+        }
+    }
+
+
+    /** Combines ids of all keys, thus equal checksum means equal ids */
+    static long idChecksum(MappedInternDictionary<String> dict, int keyCount) {
+        long checksum = 0;
+        BitSet ids = new BitSet();
+        for (int idx = 0; idx < keyCount; idx++) {
+            byte[] key = ("key-" + idx).getBytes(US_ASCII);
+            int id = dict.id(key, 0, key.length);
+            if (id < 0 || ids.get(id))
+                throw new AssertionError("key-" + idx + " has missing or duplicate id: " + id);
+            ids.set(id);
+            checksum = checksum * 31 + id;
+        }
+        return checksum;
+    }
+
+
+    @Test
+    public void orderedAccessMatchesPlainAccess() throws IOException {
+        File file = new File(tmp.getRoot(), "buf");
+        @Cleanup RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        MappedByteBuffer buf = raf.getChannel().map(MapMode.READ_WRITE, 0, 4096);
+
+        long slot = 0x0102030405060708l;
+        MappedAccess.putLongRelease(buf, 64, slot);
+        assertEquals(slot, buf.getLong(64));
+        buf.putLong(72, ~slot);
+        assertEquals(~slot, MappedAccess.getLongAcquire(buf, 72));
+
+        MappedAccess.putIntRelease(buf, 20, 0x01020304);
+        assertEquals(0x01020304, buf.getInt(20));
+        buf.putInt(24, -7);
+        assertEquals(-7, MappedAccess.getIntAcquire(buf, 24));
+    }
+
+
+    @Test
+    public void fullDictionary() throws Exception {
+        File file = new File(tmp.getRoot(), "dict");
+        @Cleanup MappedInternDictionary<String> dict = MappedInternDictionary.open(file, 2, 1024);
+
+        String a = dict.intern("a".getBytes(US_ASCII), UNMARSHALLER);
+        String b = dict.intern("b".getBytes(US_ASCII), UNMARSHALLER);
+        String c = dict.intern("c".getBytes(US_ASCII), UNMARSHALLER);
+
+        assertSame(a, dict.intern("a".getBytes(US_ASCII), UNMARSHALLER));
+        assertSame(b, dict.intern("b".getBytes(US_ASCII), UNMARSHALLER));
+        assertEquals("c", c);
+        assertEquals(-1, dict.id("c".getBytes(US_ASCII), 0, 1));
+        assertEquals(2, dict.size());
+
+        // misses in full dictionary don't wait for lock
+        dict.lock.lock();
+        try {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            Future<String> d = executor.submit(() -> dict.intern("d".getBytes(US_ASCII), UNMARSHALLER));
+            assertEquals("d", d.get(10, TimeUnit.SECONDS));
+            executor.shutdown();
+        }
+        finally {
+            dict.lock.unlock();
+        }
+    }
+
+
+    @Test
+    public void corruptHeaderReleasesPathLock() throws IOException {
+        File file = new File(tmp.getRoot(), "dict");
+        MappedInternDictionary.open(file, 10, 1024).close();
+
+        // capacity of more than 2 GB dictionary can't be mapped
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(MappedInternDictionary.CAPACITY_POS);
+            raf.writeInt(Integer.MAX_VALUE / 4);
+        }
+
+        try {
+            MappedInternDictionary.open(file, 10, 1024);
+            fail("corrupt dictionary opened");
+        }
+        catch (IOException expected) {
+        }
+        assertFalse(MappedInternDictionary.PATH_LOCKS.containsKey(file.getCanonicalPath()));
+    }
+
+
+    @Test(expected = IOException.class)
+    public void notDictionary() throws IOException {
+        File file = new File(tmp.getRoot(), "dict");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write("not a dictionary".getBytes(US_ASCII));
+        }
+
+        MappedInternDictionary.open(file, 10, 1024);
+    }
+
+}
@@ -0,0 +1,157 @@
+package mt.fireworks.pauseless;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import mt.fireworks.pauseless.Interner.UnmarshallerWithOffset;
+
+public class ScopedInternTrieTest {
+
+    final AtomicInteger unmarshallCount = new AtomicInteger();
+
+    final UnmarshallerWithOffset<String> toString = (data, off, len) -> {
+        unmarshallCount.incrementAndGet();
+        return new String(data, off, len, US_ASCII);
+    };
+
+
+    @Test
+    public void scopeInternsLocally() {
+        ScopedInternTrie<String> interns = new ScopedInternTrie<>();
+
+        try (ScopedInternTrie.Scope<String> scope = interns.openScope()) {
+            for (String word : new String[] {"Y", "example", "uninspiring example"}) {
+                String a = scope.intern(word.getBytes(US_ASCII), toString);
+                String b = scope.intern(word.getBytes(US_ASCII), toString);
+                assertEquals(word, a);
+                assertSame(a, b);
+            }
+        }
+
+        assertEquals(3, unmarshallCount.get());
+        assertNull("seen in one scope only", interns.getGlobal().get("Y".getBytes(US_ASCII), 0, 1));
+    }
+
+
+    @Test
+    public void recurringKeysArePromoted() {
+        ScopedInternTrie<String> interns = new ScopedInternTrie<>(new InternTrie<>(), 2);
+        byte[] data = "recurring value".getBytes(US_ASCII);
+
+        String first;
+        try (ScopedInternTrie.Scope<String> scope = interns.openScope()) {
+            first = scope.intern(data, toString);
+        }
+
+        String second;
+        try (ScopedInternTrie.Scope<String> scope = interns.openScope()) {
+            second = scope.intern(data, toString);
+        }
+
+        String third;
+        try (ScopedInternTrie.Scope<String> scope = interns.openScope()) {
+            third = scope.intern(data, toString);
+        }
+
+        assertEquals(first, second);
+        assertSame(second, third);
+        assertSame(second, interns.getGlobal().get(data, 0, data.length));
+        assertEquals(2, unmarshallCount.get());
+    }
+
+
+    @Test
+    public void promoteImmediately() {
+        ScopedInternTrie<String> interns = new ScopedInternTrie<>(new InternTrie<>(), 1);
+        byte[] data = "abc".getBytes(US_ASCII);
+
+        try (ScopedInternTrie.Scope<String> scope = interns.openScope()) {
+            String a = scope.intern(data, toString);
+            assertSame(a, interns.getGlobal().get(data, 0, data.length));
+        }
+    }
+
+
+    @Test
+    public void singleUseKeysAreNotPromoted() {
+        InternTrie<String> global = new InternTrie<>();
+        ScopedInternTrie<String> interns = new ScopedInternTrie<>(global, 2);
+        int keyCount = 300_000;
+
+        for (int idx = 0; idx < keyCount; idx++) {
+            try (ScopedInternTrie.Scope<String> scope = interns.openScope()) {
+                scope.intern(("id-" + idx).getBytes(US_ASCII), toString);
+                // recurring key, seen by every 100th scope
+                scope.intern(("type-" + idx % 100).getBytes(US_ASCII), toString);
+            }
+        }
+
+        assertTrue(global.size() < 100 + keyCount / 50);
+        for (int type = 0; type < 100; type++) {
+            assertNotNull(global.get(("type-" + type).getBytes(US_ASCII), 0, ("type-" + type).length()));
+        }
+    }
+
+
+    @Test
+    public void globalValuesAreShared() {
+        InternTrie<String> global = new InternTrie<>();
+        String yes = global.intern("yes".getBytes(US_ASCII), toString);
+        unmarshallCount.set(0);
+
+        ScopedInternTrie<String> interns = new ScopedInternTrie<>(global, 2);
+        try (ScopedInternTrie.Scope<String> scope = interns.openScope()) {
+            assertSame(yes, scope.intern("yes".getBytes(US_ASCII), toString));
+            assertSame(yes, scope.intern("yes".getBytes(US_ASCII), toString));
+        }
+        assertEquals(0, unmarshallCount.get());
+    }
+
+
+    @Test
+    public void offsetKeys() {
+        ScopedInternTrie<String> interns = new ScopedInternTrie<>();
+        byte[] bytes = "abcdefghijklmnopqrstuvwxyz".getBytes(US_ASCII);
+
+        try (ScopedInternTrie.Scope<String> scope = interns.openScope()) {
+            for (int i = 0; i < bytes.length; i++) {
+                for (int j = i + 1; j <= bytes.length; j++) {
+                    String val = scope.intern(bytes, i, j - i, toString);
+                    assertEquals(new String(bytes, i, j - i, US_ASCII), val);
+                    assertSame(val, scope.intern(bytes, i, j - i, toString));
+                }
+            }
+        }
+    }
+
+
+    @Test(expected = IllegalStateException.class)
+    public void closedScope() {
+        ScopedInternTrie<String> interns = new ScopedInternTrie<>();
+        ScopedInternTrie.Scope<String> scope = interns.openScope();
+        scope.close();
+        scope.intern("abc".getBytes(US_ASCII), toString);
+    }
+
+
+
+    @Test
+    public void leadingZeroKeys() {
+        ScopedInternTrie<String> interns = new ScopedInternTrie<>();
+        byte[][] keys = { { 'a' }, { 0, 'a' }, { 0, 0, 'a' }, { 0 } };
+
+        try (ScopedInternTrie.Scope<String> scope = interns.openScope()) {
+            for (byte[] key : keys) {
+                String val = scope.intern(key, (data, off, len) -> Arrays.toString(data));
+                assertEquals(Arrays.toString(key), val);
+                assertSame(val, scope.get(key, 0, key.length));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package mt.fireworks.pauseless;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.*;
+
+/**
+ * Benchmark InternTrie misses with slow unmarshaller under high concurrency. <br>
+ *
+ * Unmarshaller parks for a while on each call, simulating decoding of nested
+ * pojo or I/O. All keys are shorter than 8 bytes thus all are values of root
+ * node, which is worst case for node lock contention. Benchmark is run with
+ * pool of platform threads, and on JDK 21+ with virtual thread per task.
+ */
+public class SlowUnmarshallerBench {
+
+    public static void main(String[] args) {
+        final int uniqueKeys = 20_000;
+        final int taskCount = 200_000;
+        final long unmarshallNanos = TimeUnit.MICROSECONDS.toNanos(200);
+
+        System.out.println("InternTrie slow unmarshaller benchmark started.");
+        System.out.println("Unique keys: " + uniqueKeys + ", tasks: " + taskCount + ", unmarshall time: " + unmarshallNanos + " ns");
+
+        final ArrayList<byte[]> keys = new ArrayList<>();
+        for (int idx = 0; idx < uniqueKeys; idx++) {
+            keys.add(RandomStringUtils.randomAlphanumeric(4).getBytes(UTF_8));
+        }
+
+        // warmup
+        runTest("warmup", Executors.newFixedThreadPool(64), keys, taskCount / 10, unmarshallNanos);
+
+        for (int threads : new int[] {16, 64, 256, 1024}) {
+            runTest("platform threads: " + threads, Executors.newFixedThreadPool(threads), keys, taskCount, unmarshallNanos);
+        }
+
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        if (virtual != null) {
+            runTest("virtual threads", virtual, keys, taskCount, unmarshallNanos);
+        }
+        else {
+            System.out.println("  virtual threads are not available on " + System.getProperty("java.version"));
+        }
+
+        System.out.println("Done");
+    }
+
+
+    @SneakyThrows
+    static void runTest(
+        String name, ExecutorService executor,
+        ArrayList<byte[]> keys, int taskCount, long unmarshallNanos
+    ) {
+        final InternTrie<String> trie = new InternTrie<>();
+        final AtomicLong unmarshallCount = new AtomicLong();
+        final ArrayList<Future<?>> futures = new ArrayList<>(taskCount);
+
+        long start = System.nanoTime();
+        for (int idx = 0; idx < taskCount; idx++) {
+            byte[] key = keys.get(ThreadLocalRandom.current().nextInt(keys.size()));
+            SlowIntern task = new SlowIntern(trie, key, unmarshallNanos, unmarshallCount);
+            futures.add(executor.submit(task));
+        }
+
+        for (Future<?> future : futures)
+            future.get();
+
+        long dur = System.nanoTime() - start;
+        executor.shutdown();
+
+        long speed = taskCount * 1_000_000_000l / dur;
+        String res =
+                String.format("  %-24s", name)
+                + ", " +
+                String.format("time: %6d ms", TimeUnit.NANOSECONDS.toMillis(dur))
+                + ", " +
+                String.format("speed: %8d inters/sec", speed)
+                + ", " +
+                String.format("unmarshalls: %7d", unmarshallCount.get());
+
+        System.out.println(res);
+    }
+
+
+    /** JDK 21 Executors#newVirtualThreadPerTaskExecutor, or null on older JDKs */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+
+    @AllArgsConstructor
+    static class SlowIntern implements Runnable {
+        final InternTrie<String> trie;
+        final byte[] key;
+        final long unmarshallNanos;
+        final AtomicLong unmarshallCount;
+
+        public void run() {
+            String str = trie.intern(key, (data, off, len) -> {
+                unmarshallCount.incrementAndGet();
+                LockSupport.parkNanos(unmarshallNanos);
+                return new String(data, off, len, UTF_8);
+            });
+
+            if (str.length() != key.length) {
+                throw new RuntimeException("'" + str + "' has wrong length");
+            }
+        }
+    }
+
+}